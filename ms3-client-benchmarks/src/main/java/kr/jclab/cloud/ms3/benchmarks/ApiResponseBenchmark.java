@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.benchmarks;
+
+import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import kr.jclab.cloud.ms3.client.MS3Client;
+import kr.jclab.cloud.ms3.client.MS3ClientBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON response decoding of apiRequestSync, through listBuckets and getObjectMetadata.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ApiResponseBenchmark {
+    @Param({"10", "1000"})
+    public int bucketCount;
+
+    @Param({"0", "32"})
+    public int userMetadataCount;
+
+    private LoopbackServer m_server;
+    private MS3Client m_client;
+
+    @Setup
+    public void setup() throws IOException {
+        m_server = new LoopbackServer();
+        m_server.setBuckets(bucketCount);
+        // The metadata cache is disabled by default, so every call reaches the server
+        m_client = MS3ClientBuilder.standard().serverUrl(m_server.getServerUrl()).build();
+
+        ObjectMetadata objectMetadata = new ObjectMetadata();
+        objectMetadata.setContentType("application/octet-stream");
+        objectMetadata.setContentLength(0);
+        for(int i = 0; i < userMetadataCount; i++) {
+            objectMetadata.addUserMetadata("attribute-" + i, "value-" + i);
+        }
+        m_client.putObject("bucket", "object", new ByteArrayInputStream(new byte[0]), objectMetadata);
+    }
+
+    @TearDown
+    public void tearDown() {
+        m_client.shutdown();
+        m_server.close();
+    }
+
+    @Benchmark
+    public List<Bucket> listBuckets() {
+        return m_client.listBuckets();
+    }
+
+    @Benchmark
+    public ObjectMetadata getObjectMetadata() {
+        return m_client.getObjectMetadata("bucket", "object");
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.benchmarks;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import kr.jclab.cloud.ms3.client.MS3Client;
+import kr.jclab.cloud.ms3.client.MS3ClientBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Download path of getObject: metadata prefix parsing and content streaming.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GetObjectBenchmark {
+    @Param({"1024", "1048576"})
+    public int size;
+
+    @Param({"0", "32"})
+    public int userMetadataCount;
+
+    private LoopbackServer m_server;
+    private MS3Client m_client;
+
+    // Read buffer of the benchmark thread, the client buffers are what is measured
+    private final byte[] m_readBuffer = new byte[65536];
+
+    @Setup
+    public void setup() throws IOException {
+        m_server = new LoopbackServer();
+        m_server.setKeepContent(true);
+        m_client = MS3ClientBuilder.standard().serverUrl(m_server.getServerUrl()).build();
+
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        ObjectMetadata objectMetadata = new ObjectMetadata();
+        objectMetadata.setContentType("application/octet-stream");
+        objectMetadata.setContentLength(content.length);
+        for(int i = 0; i < userMetadataCount; i++) {
+            objectMetadata.addUserMetadata("attribute-" + i, "value-" + i);
+        }
+        m_client.putObject("bucket", "object", new ByteArrayInputStream(content), objectMetadata);
+    }
+
+    @TearDown
+    public void tearDown() {
+        m_client.shutdown();
+        m_server.close();
+    }
+
+    @Benchmark
+    public long getObject() throws IOException {
+        long total = 0;
+        try (S3Object s3Object = m_client.getObject("bucket", "object");
+             S3ObjectInputStream inputStream = s3Object.getObjectContent()) {
+            int readlen;
+            while((readlen = inputStream.read(m_readBuffer)) > 0) {
+                total += readlen;
+            }
+        }
+        return total;
+    }
+}
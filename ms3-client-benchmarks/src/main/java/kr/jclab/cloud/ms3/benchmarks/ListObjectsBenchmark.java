@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.benchmarks;
+
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import kr.jclab.cloud.ms3.client.MS3Client;
+import kr.jclab.cloud.ms3.client.MS3ClientBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing conversion of listObjects (commonListObjects), flat and with a delimiter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListObjectsBenchmark {
+    @Param({"100", "10000"})
+    public int objectCount;
+
+    private LoopbackServer m_server;
+    private MS3Client m_client;
+
+    @Setup
+    public void setup() throws IOException {
+        m_server = new LoopbackServer();
+        m_server.setListing("bucket", objectCount);
+        m_client = MS3ClientBuilder.standard().serverUrl(m_server.getServerUrl()).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        m_client.shutdown();
+        m_server.close();
+    }
+
+    @Benchmark
+    public ObjectListing listObjects() {
+        return m_client.listObjects(new ListObjectsRequest().withBucketName("bucket").withMaxKeys(objectCount));
+    }
+
+    @Benchmark
+    public ObjectListing listObjectsWithDelimiter() {
+        return m_client.listObjects(new ListObjectsRequest().withBucketName("bucket").withDelimiter("/").withMaxKeys(objectCount));
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import kr.jclab.cloud.ms3.common.dto.BucketsListDTO;
+import kr.jclab.cloud.ms3.common.dto.ListObjectsDTO;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process MS3 server on the loopback interface.
+ *
+ * Responses are rendered once when the content is set up, so a request costs the server little more
+ * than the socket I/O and the benchmarks mostly measure the client. Uploaded bodies are drained and
+ * only their metadata prefix and length are kept, unless setKeepContent(true) was called: downloading
+ * such an object returns zeros.
+ */
+public class LoopbackServer implements AutoCloseable {
+    private static final byte[] PUT_RESPONSE = "{\"code\":0}".getBytes(StandardCharsets.UTF_8);
+
+    // Keeps server side allocations out of the gc profiler figures
+    private static final ThreadLocal<byte[]> DRAIN_BUFFER = ThreadLocal.withInitial(() -> new byte[65536]);
+
+    // Content of the objects uploaded while content is not kept
+    private static final byte[] ZEROS = new byte[65536];
+
+    private static class StoredObject {
+        final byte[] metadata;
+        // null to send contentLength zeros
+        final byte[] content;
+        final long contentLength;
+
+        StoredObject(byte[] metadata, byte[] content, long contentLength) {
+            this.metadata = metadata;
+            this.content = content;
+            this.contentLength = contentLength;
+        }
+    }
+
+    private final ObjectMapper m_objectMapper = new ObjectMapper();
+    private final HttpServer m_server;
+    private final ExecutorService m_executor;
+
+    private final Map<String, StoredObject> m_objects = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> m_listings = new ConcurrentHashMap<>();
+    private volatile boolean m_keepContent = false;
+    private volatile byte[] m_bucketsResponse = "{\"list\":[]}".getBytes(StandardCharsets.UTF_8);
+
+    public LoopbackServer() throws IOException {
+        this(4);
+    }
+
+    public LoopbackServer(int threads) throws IOException {
+        // Without TCP_NODELAY every small response waits for the delayed ACK of its headers (~40 ms)
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        m_server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        m_executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "loopback-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        m_server.setExecutor(m_executor);
+        m_server.createContext("/", exchange -> {
+            try {
+                handle(exchange);
+            } catch (IOException | RuntimeException e) {
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                exchange.close();
+            }
+        });
+        m_server.start();
+    }
+
+    /**
+     * @return server url for MS3ClientBuilder.serverUrl()
+     */
+    public String getServerUrl() {
+        return "http://" + m_server.getAddress().getHostString() + ":" + m_server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Render the response of api/buckets/list.
+     */
+    public void setBuckets(int count) throws IOException {
+        BucketsListDTO.Response response = new BucketsListDTO.Response();
+        for(int i = 0; i < count; i++) {
+            BucketsListDTO.BucketSummary summary = new BucketsListDTO.BucketSummary();
+            summary.bucketName = "bucket-" + i;
+            summary.creationTime = 1545000000000L + i;
+            response.list.add(summary);
+        }
+        m_bucketsResponse = m_objectMapper.writeValueAsBytes(response);
+    }
+
+    /**
+     * Render the response of api/bucket/list for a bucket of count objects.
+     */
+    public void setListing(String bucketName, int count) throws IOException {
+        ListObjectsDTO.Response response = new ListObjectsDTO.Response();
+        for(int i = 0; i < count; i++) {
+            ListObjectsDTO.ObjectSummary summary = new ListObjectsDTO.ObjectSummary();
+            summary.bucketName = bucketName;
+            summary.key = String.format("dir-%02d/object-%06d", i % 16, i);
+            summary.size = 1024L * (i + 1);
+            summary.lastModified = 1545000000000L + i;
+            response.list.add(summary);
+        }
+        response.truncated = false;
+        m_listings.put(bucketName, m_objectMapper.writeValueAsBytes(response));
+    }
+
+    /**
+     * @param keepContent true to store the content of uploaded objects,
+     *                    false to only keep their metadata and length
+     */
+    public void setKeepContent(boolean keepContent) {
+        m_keepContent = keepContent;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getRawPath();
+        if(path.equals("/api/buckets/list")) {
+            sendJson(exchange, m_bucketsResponse);
+        }else if(path.startsWith("/api/bucket/list/")) {
+            byte[] listing = m_listings.get(path.substring("/api/bucket/list/".length()));
+            if(listing == null) {
+                drainAndSend(exchange, 404);
+                return;
+            }
+            sendJson(exchange, listing);
+        }else if(path.startsWith("/api/bucket/metadata/")) {
+            StoredObject object = m_objects.get(path.substring("/api/bucket/metadata/".length()));
+            if(object == null) {
+                drainAndSend(exchange, 404);
+                return;
+            }
+            sendJson(exchange, object.metadata);
+        }else if(path.startsWith("/api/bucket/object/")) {
+            String name = path.substring("/api/bucket/object/".length());
+            if("PUT".equals(method)) {
+                receiveObject(exchange, name);
+                return;
+            }
+            StoredObject object = m_objects.get(name);
+            if(object == null) {
+                drainAndSend(exchange, 404);
+                return;
+            }
+            exchange.getResponseHeaders().add("MS3-METADATA-SIZE", Integer.toString(object.metadata.length));
+            exchange.sendResponseHeaders(200, object.metadata.length + object.contentLength);
+            OutputStream outputStream = exchange.getResponseBody();
+            outputStream.write(object.metadata);
+            if(object.content != null) {
+                outputStream.write(object.content);
+            }else{
+                for(long remaining = object.contentLength; remaining > 0; remaining -= ZEROS.length) {
+                    outputStream.write(ZEROS, 0, (int)Math.min(ZEROS.length, remaining));
+                }
+            }
+        }else{
+            drainAndSend(exchange, 404);
+        }
+    }
+
+    private void receiveObject(HttpExchange exchange, String name) throws IOException {
+        String metadataSizeHeader = exchange.getRequestHeaders().getFirst("MS3-METADATA-SIZE");
+        int metadataSize = (metadataSizeHeader != null) ? Integer.parseInt(metadataSizeHeader) : 0;
+        InputStream inputStream = exchange.getRequestBody();
+        byte[] metadata = new byte[metadataSize];
+        int position = 0;
+        while(position < metadataSize) {
+            int readlen = inputStream.read(metadata, position, metadataSize - position);
+            if(readlen < 0)
+                break;
+            position += readlen;
+        }
+        if(m_keepContent) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            IOUtils.copy(inputStream, outputStream);
+            byte[] content = outputStream.toByteArray();
+            m_objects.put(name, new StoredObject(metadata, content, content.length));
+        }else{
+            m_objects.put(name, new StoredObject(metadata, null, drain(inputStream)));
+        }
+        sendJson(exchange, PUT_RESPONSE);
+    }
+
+    private static void sendJson(HttpExchange exchange, byte[] body) throws IOException {
+        drain(exchange.getRequestBody());
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static void drainAndSend(HttpExchange exchange, int statusCode) throws IOException {
+        drain(exchange.getRequestBody());
+        exchange.sendResponseHeaders(statusCode, -1);
+    }
+
+    /**
+     * @return number of bytes skipped
+     */
+    private static long drain(InputStream inputStream) throws IOException {
+        byte[] buffer = DRAIN_BUFFER.get();
+        long total = 0;
+        int readlen;
+        while((readlen = inputStream.read(buffer)) >= 0) {
+            total += readlen;
+        }
+        return total;
+    }
+
+    @Override
+    public void close() {
+        m_server.stop(0);
+        m_executor.shutdownNow();
+        try {
+            m_executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.benchmarks;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import kr.jclab.cloud.ms3.client.MS3Client;
+import kr.jclab.cloud.ms3.client.MS3ClientBuilder;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upload path of putObject: metadata prefix and entity writeTo, from a stream or from a file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PutObjectBenchmark {
+    public enum Source {
+        STREAM,
+        FILE
+    }
+
+    @Param({"1024", "1048576"})
+    public int size;
+
+    @Param({"STREAM", "FILE"})
+    public Source source;
+
+    private LoopbackServer m_server;
+    private MS3Client m_client;
+    private byte[] m_content;
+    private File m_file;
+
+    @Setup
+    public void setup() throws IOException {
+        m_server = new LoopbackServer();
+        m_client = MS3ClientBuilder.standard().serverUrl(m_server.getServerUrl()).build();
+        m_content = new byte[size];
+        new Random(size).nextBytes(m_content);
+        m_file = File.createTempFile("ms3-benchmark", ".bin");
+        m_file.deleteOnExit();
+        FileUtils.writeByteArrayToFile(m_file, m_content);
+    }
+
+    @TearDown
+    public void tearDown() {
+        m_client.shutdown();
+        m_server.close();
+        m_file.delete();
+    }
+
+    @Benchmark
+    public PutObjectResult putObject() {
+        PutObjectRequest putObjectRequest;
+        if(source == Source.FILE) {
+            putObjectRequest = new PutObjectRequest("bucket", "object", m_file);
+        }else{
+            ObjectMetadata objectMetadata = new ObjectMetadata();
+            objectMetadata.setContentLength(m_content.length);
+            putObjectRequest = new PutObjectRequest("bucket", "object", new ByteArrayInputStream(m_content), objectMetadata);
+        }
+        return m_client.putObject(putObjectRequest);
+    }
+}
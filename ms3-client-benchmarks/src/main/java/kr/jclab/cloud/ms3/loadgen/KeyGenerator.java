@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.loadgen;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Chooses the object index of the next operation among a fixed key space.
+ */
+public abstract class KeyGenerator {
+    protected final int m_keyCount;
+
+    protected KeyGenerator(int keyCount) {
+        if(keyCount <= 0) {
+            throw new IllegalArgumentException("keyCount must be positive: " + keyCount);
+        }
+        m_keyCount = keyCount;
+    }
+
+    public int getKeyCount() {
+        return m_keyCount;
+    }
+
+    /**
+     * @return an index between 0 and getKeyCount() - 1
+     */
+    public abstract int nextIndex();
+
+    public static KeyGenerator uniform(int keyCount) {
+        return new KeyGenerator(keyCount) {
+            @Override
+            public int nextIndex() {
+                return ThreadLocalRandom.current().nextInt(m_keyCount);
+            }
+        };
+    }
+
+    /**
+     * Zipfian distribution of the given exponent (0.99 in YCSB), whose hot keys are
+     * scattered over the key space instead of being the first indexes.
+     */
+    public static KeyGenerator zipfian(int keyCount, double exponent) {
+        return new ZipfianGenerator(keyCount, exponent);
+    }
+
+    /**
+     * Zipfian generator of Gray et al., "Quickly Generating Billion-Record Synthetic Databases", as used by YCSB.
+     * Setup is O(keyCount), drawing a value is O(1).
+     */
+    static class ZipfianGenerator extends KeyGenerator {
+        private final double m_theta;
+        private final double m_alpha;
+        private final double m_zetan;
+        private final double m_eta;
+
+        ZipfianGenerator(int keyCount, double theta) {
+            super(keyCount);
+            if(theta <= 0 || theta == 1.0) {
+                throw new IllegalArgumentException("exponent must be positive and not 1: " + theta);
+            }
+            m_theta = theta;
+            m_alpha = 1.0 / (1.0 - theta);
+            m_zetan = zeta(keyCount, theta);
+            double zeta2 = zeta(2, theta);
+            m_eta = (1 - Math.pow(2.0 / keyCount, 1 - theta)) / (1 - zeta2 / m_zetan);
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for(int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        /**
+         * @return the rank of the drawn key, 0 being the most popular
+         */
+        int nextRank() {
+            double u = ThreadLocalRandom.current().nextDouble();
+            double uz = u * m_zetan;
+            if(uz < 1.0) {
+                return 0;
+            }
+            if(uz < 1.0 + Math.pow(0.5, m_theta)) {
+                return Math.min(1, m_keyCount - 1);
+            }
+            int rank = (int)(m_keyCount * Math.pow(m_eta * u - m_eta + 1, m_alpha));
+            return Math.min(rank, m_keyCount - 1);
+        }
+
+        @Override
+        public int nextIndex() {
+            return scatter(nextRank());
+        }
+
+        private int scatter(int rank) {
+            // FNV-1a of the rank, so the popular keys are not neighbours in the listing order
+            long hash = 0xcbf29ce484222325L;
+            for(int i = 0; i < 4; i++) {
+                hash ^= (rank >>> (i * 8)) & 0xff;
+                hash *= 0x100000001b3L;
+            }
+            return (int)Long.remainderUnsigned(hash, m_keyCount);
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.loadgen;
+
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import kr.jclab.cloud.ms3.benchmarks.LoopbackServer;
+import kr.jclab.cloud.ms3.client.MS3Client;
+import kr.jclab.cloud.ms3.client.MS3ClientBuilder;
+import kr.jclab.cloud.ms3.client.metrics.LatencyHistogram;
+import kr.jclab.cloud.ms3.loadgen.LoadOptions.OperationType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Command line load generator for capacity planning of MS3 servers.
+ *
+ * Worker threads run a weighted mix of put, get, list and metadata operations on a fixed key space.
+ * With a target rate, operations follow a fixed schedule (operation n is due at start + n / rate)
+ * and latency is measured from the due time, not from the time a worker got to it: when the server
+ * stalls, the operations that should have been sent meanwhile are charged for the wait instead of
+ * being silently dropped ("coordinated omission"). The service time, measured from the actual
+ * start, is reported next to it. Without a target rate the workers run a closed loop and both are equal.
+ */
+public class LoadGenerator {
+    private static final int LIST_PAGE_SIZE = 100;
+
+    private final LoadOptions m_options;
+    private final MS3Client m_client;
+    private final KeyGenerator m_keyGenerator;
+
+    private final OperationType[] m_operations;
+    private final int[] m_cumulativeWeights;
+
+    // Shared, read-only source of the uploaded content
+    private final byte[] m_payload;
+
+    private final Map<OperationType, LatencyHistogram> m_responseTimes = new EnumMap<>(OperationType.class);
+    private final Map<OperationType, LatencyHistogram> m_serviceTimes = new EnumMap<>(OperationType.class);
+    private final Map<OperationType, LongAdder> m_errors = new EnumMap<>(OperationType.class);
+    private final LongAdder m_completedCount = new LongAdder();
+    private final AtomicLong m_sequence = new AtomicLong();
+
+    private volatile Throwable m_firstError = null;
+
+    public LoadGenerator(LoadOptions options, MS3Client client) {
+        m_options = options;
+        m_client = client;
+        m_keyGenerator = (options.distribution == LoadOptions.Distribution.ZIPFIAN)
+                ? KeyGenerator.zipfian(options.keyCount, options.zipfianExponent)
+                : KeyGenerator.uniform(options.keyCount);
+
+        m_operations = options.mix.keySet().toArray(new OperationType[0]);
+        m_cumulativeWeights = new int[m_operations.length];
+        int total = 0;
+        for(int i = 0; i < m_operations.length; i++) {
+            total += options.mix.get(m_operations[i]);
+            m_cumulativeWeights[i] = total;
+        }
+
+        m_payload = new byte[(int)options.maxSize];
+        new Random(0).nextBytes(m_payload);
+
+        for(OperationType type : OperationType.values()) {
+            m_responseTimes.put(type, new LatencyHistogram());
+            m_serviceTimes.put(type, new LatencyHistogram());
+            m_errors.put(type, new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        LoopbackServer server = null;
+        String serverUrl = options.serverUrl;
+        if(serverUrl == null) {
+            server = new LoopbackServer(Math.max(4, options.concurrency));
+            server.setListing(options.bucketName, options.keyCount);
+            serverUrl = server.getServerUrl();
+            System.out.println("Using the in-process stand-in server at " + serverUrl);
+        }
+        MS3Client client = MS3ClientBuilder.standard()
+                .serverUrl(serverUrl)
+                .maxConnections(options.concurrency)
+                .maxConnectionsPerRoute(options.concurrency)
+                .build();
+        try {
+            new LoadGenerator(options, client).run(System.out);
+        } finally {
+            client.shutdown();
+            if(server != null) {
+                server.close();
+            }
+        }
+    }
+
+    public void run(PrintStream out) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(m_options.concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "loadgen-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            if(m_options.preload && m_options.mix.keySet().stream().anyMatch(type -> type != OperationType.PUT)) {
+                preload(executor, out);
+            }
+
+            out.println(String.format("Running %s for %d s after %d s of warmup: %d workers, rate %s, %d keys (%s), size %d-%d",
+                    m_options.mix, m_options.durationSeconds, m_options.warmupSeconds, m_options.concurrency,
+                    (m_options.rate > 0) ? m_options.rate + "/s" : "unlimited",
+                    m_options.keyCount, m_options.distribution.name().toLowerCase(), m_options.minSize, m_options.maxSize));
+
+            long startTime = System.nanoTime();
+            long measureStart = startTime + TimeUnit.SECONDS.toNanos(m_options.warmupSeconds);
+            long endTime = measureStart + TimeUnit.SECONDS.toNanos(m_options.durationSeconds);
+            List<Future<?>> futures = new ArrayList<>();
+            for(int i = 0; i < m_options.concurrency; i++) {
+                futures.add(executor.submit(() -> work(startTime, measureStart, endTime)));
+            }
+            reportProgress(out, startTime, measureStart, endTime);
+            for(Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    out.println("Worker failed: " + e.getCause());
+                }
+            }
+            printReport(out);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void preload(ExecutorService executor, PrintStream out) throws InterruptedException {
+        out.println("Preloading " + m_options.keyCount + " objects...");
+        AtomicLong next = new AtomicLong();
+        List<Future<?>> futures = new ArrayList<>();
+        for(int i = 0; i < m_options.concurrency; i++) {
+            futures.add(executor.submit(() -> {
+                long index;
+                while((index = next.getAndIncrement()) < m_options.keyCount) {
+                    put(keyOf((int)index));
+                }
+            }));
+        }
+        for(Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Preload failed", e.getCause());
+            }
+        }
+    }
+
+    private void work(long startTime, long measureStart, long endTime) {
+        double intervalNanos = (m_options.rate > 0) ? TimeUnit.SECONDS.toNanos(1) / m_options.rate : 0;
+        byte[] readBuffer = new byte[65536];
+        while(true) {
+            long intendedStart;
+            if(intervalNanos > 0) {
+                intendedStart = startTime + (long)(m_sequence.getAndIncrement() * intervalNanos);
+                if(intendedStart >= endTime) {
+                    return;
+                }
+                waitUntil(intendedStart);
+            }else{
+                intendedStart = System.nanoTime();
+                if(intendedStart >= endTime) {
+                    return;
+                }
+            }
+
+            OperationType type = nextOperation();
+            long actualStart = System.nanoTime();
+            boolean success;
+            try {
+                perform(type, readBuffer);
+                success = true;
+            } catch (RuntimeException | IOException e) {
+                if(m_firstError == null) {
+                    m_firstError = e;
+                }
+                success = false;
+            }
+            long completion = System.nanoTime();
+
+            if(intendedStart < measureStart) {
+                continue;
+            }
+            m_completedCount.increment();
+            if(success) {
+                m_responseTimes.get(type).record(completion - intendedStart);
+                m_serviceTimes.get(type).record(completion - actualStart);
+            }else{
+                m_errors.get(type).increment();
+            }
+        }
+    }
+
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private OperationType nextOperation() {
+        int value = ThreadLocalRandom.current().nextInt(m_cumulativeWeights[m_cumulativeWeights.length - 1]);
+        for(int i = 0; i < m_cumulativeWeights.length; i++) {
+            if(value < m_cumulativeWeights[i]) {
+                return m_operations[i];
+            }
+        }
+        return m_operations[m_operations.length - 1];
+    }
+
+    private void perform(OperationType type, byte[] readBuffer) throws IOException {
+        String key = keyOf(m_keyGenerator.nextIndex());
+        switch (type) {
+            case PUT:
+                put(key);
+                break;
+            case GET:
+                try (S3Object s3Object = m_client.getObject(m_options.bucketName, key);
+                     S3ObjectInputStream inputStream = s3Object.getObjectContent()) {
+                    drain(inputStream, readBuffer);
+                }
+                break;
+            case LIST:
+                m_client.listObjects(new ListObjectsRequest()
+                        .withBucketName(m_options.bucketName)
+                        .withMarker(key)
+                        .withMaxKeys(LIST_PAGE_SIZE));
+                break;
+            case METADATA:
+                m_client.getObjectMetadata(m_options.bucketName, key);
+                break;
+        }
+    }
+
+    private void put(String key) {
+        long size = m_options.minSize;
+        if(m_options.maxSize > m_options.minSize) {
+            size += ThreadLocalRandom.current().nextLong(m_options.maxSize - m_options.minSize + 1);
+        }
+        ObjectMetadata objectMetadata = new ObjectMetadata();
+        objectMetadata.setContentLength(size);
+        m_client.putObject(m_options.bucketName, key, new ByteArrayInputStream(m_payload, 0, (int)size), objectMetadata);
+    }
+
+    private static void drain(InputStream inputStream, byte[] buffer) throws IOException {
+        while(inputStream.read(buffer) >= 0) {
+        }
+    }
+
+    private static String keyOf(int index) {
+        return String.format("object-%08d", index);
+    }
+
+    private void reportProgress(PrintStream out, long startTime, long measureStart, long endTime) throws InterruptedException {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(m_options.reportIntervalSeconds);
+        long lastTime = measureStart;
+        long lastCount = 0;
+        waitUntilInterruptibly(measureStart);
+        while(intervalNanos > 0 && System.nanoTime() < endTime) {
+            long next = Math.min(endTime, lastTime + intervalNanos);
+            waitUntilInterruptibly(next);
+            long count = m_completedCount.sum();
+            double seconds = (next - lastTime) / 1e9;
+            out.println(String.format("[%5.0f s] %10.1f ops/s", (next - measureStart) / 1e9, (count - lastCount) / seconds));
+            lastTime = next;
+            lastCount = count;
+        }
+    }
+
+    private static void waitUntilInterruptibly(long deadline) throws InterruptedException {
+        long remaining;
+        while((remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+
+    private void printReport(PrintStream out) {
+        out.println();
+        out.println((m_options.rate > 0)
+                ? "Latency in ms, measured from the scheduled start (coordinated omission corrected)"
+                : "Latency in ms, closed loop: without a target rate there is no schedule to correct against");
+        out.println(String.format("%-10s %10s %10s %8s %9s %9s %9s %9s %9s %13s",
+                "operation", "count", "ops/s", "errors", "mean", "p50", "p99", "p999", "max", "service p99"));
+        LatencyHistogram allResponseTimes = new LatencyHistogram();
+        LatencyHistogram allServiceTimes = new LatencyHistogram();
+        long allErrors = 0;
+        for(OperationType type : m_operations) {
+            LatencyHistogram responseTimes = m_responseTimes.get(type);
+            LatencyHistogram serviceTimes = m_serviceTimes.get(type);
+            long errors = m_errors.get(type).sum();
+            printRow(out, type.name().toLowerCase(), responseTimes, serviceTimes, errors);
+            allResponseTimes.add(responseTimes);
+            allServiceTimes.add(serviceTimes);
+            allErrors += errors;
+        }
+        printRow(out, "total", allResponseTimes, allServiceTimes, allErrors);
+        out.println("Retries: " + m_client.getRetryPolicy().getRetryCount());
+        if(m_firstError != null) {
+            out.println("First error: " + m_firstError);
+        }
+    }
+
+    private void printRow(PrintStream out, String name, LatencyHistogram responseTimes, LatencyHistogram serviceTimes, long errors) {
+        long count = responseTimes.getCount() + errors;
+        out.println(String.format("%-10s %10d %10.1f %8d %9.3f %9.3f %9.3f %9.3f %9.3f %13.3f",
+                name, count, (double)count / m_options.durationSeconds, errors,
+                responseTimes.getMean() / 1e6,
+                responseTimes.getValueAtPercentile(50) / 1e6,
+                responseTimes.getValueAtPercentile(99) / 1e6,
+                responseTimes.getValueAtPercentile(99.9) / 1e6,
+                responseTimes.getMax() / 1e6,
+                serviceTimes.getValueAtPercentile(99) / 1e6));
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.loadgen;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Command line options of LoadGenerator, given as --name=value.
+ */
+public class LoadOptions {
+    public enum OperationType {
+        PUT,
+        GET,
+        LIST,
+        METADATA
+    }
+
+    public enum Distribution {
+        UNIFORM,
+        ZIPFIAN
+    }
+
+    // null to run against the bundled LoopbackServer
+    public String serverUrl = null;
+    public String bucketName = "loadgen";
+    public Map<OperationType, Integer> mix = parseMix("get:60,put:20,metadata:15,list:5");
+    public long minSize = 4096;
+    public long maxSize = 4096;
+    public int keyCount = 10000;
+    public Distribution distribution = Distribution.UNIFORM;
+    public double zipfianExponent = 0.99;
+    public int concurrency = 16;
+    // Operations per second, 0 for a closed loop as fast as the workers go
+    public double rate = 0;
+    public int durationSeconds = 60;
+    public int warmupSeconds = 5;
+    public int reportIntervalSeconds = 5;
+    public boolean preload = true;
+
+    static final String USAGE = String.join("\n",
+            "Usage: LoadGenerator [--name=value ...]",
+            "  --server=URL            MS3 server url, default: bundled in-process stand-in server",
+            "  --bucket=NAME           bucket to use (default loadgen)",
+            "  --mix=OP:WEIGHT,...     operations among put, get, list, metadata (default get:60,put:20,metadata:15,list:5)",
+            "  --size=N|MIN-MAX        object size in bytes, k/m/g suffixes allowed (default 4k)",
+            "  --keys=N                number of distinct keys (default 10000)",
+            "  --distribution=D        uniform or zipfian (default uniform)",
+            "  --zipf-exponent=X       exponent of the zipfian distribution (default 0.99)",
+            "  --concurrency=N         worker threads (default 16)",
+            "  --rate=N                target operations per second, 0 for a closed loop (default 0)",
+            "  --duration=SECONDS      measured duration (default 60)",
+            "  --warmup=SECONDS        unmeasured duration before it (default 5)",
+            "  --report-interval=S     progress line interval, 0 to disable (default 5)",
+            "  --preload=true|false    upload every key before the run (default true)");
+
+    public static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+        for(String arg : args) {
+            if(!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("Invalid argument: " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch (name) {
+                case "server":
+                    options.serverUrl = value.endsWith("/") ? value : value + "/";
+                    break;
+                case "bucket":
+                    options.bucketName = value;
+                    break;
+                case "mix":
+                    options.mix = parseMix(value);
+                    break;
+                case "size":
+                    int dash = value.indexOf('-');
+                    options.minSize = parseSize((dash < 0) ? value : value.substring(0, dash));
+                    options.maxSize = (dash < 0) ? options.minSize : parseSize(value.substring(dash + 1));
+                    break;
+                case "keys":
+                    options.keyCount = Integer.parseInt(value);
+                    break;
+                case "distribution":
+                    options.distribution = Distribution.valueOf(value.toUpperCase(Locale.ROOT));
+                    break;
+                case "zipf-exponent":
+                    options.zipfianExponent = Double.parseDouble(value);
+                    break;
+                case "concurrency":
+                    options.concurrency = Integer.parseInt(value);
+                    break;
+                case "rate":
+                    options.rate = Double.parseDouble(value);
+                    break;
+                case "duration":
+                    options.durationSeconds = Integer.parseInt(value);
+                    break;
+                case "warmup":
+                    options.warmupSeconds = Integer.parseInt(value);
+                    break;
+                case "report-interval":
+                    options.reportIntervalSeconds = Integer.parseInt(value);
+                    break;
+                case "preload":
+                    options.preload = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+        if(options.minSize < 0 || options.maxSize < options.minSize || options.maxSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid size range: " + options.minSize + "-" + options.maxSize);
+        }
+        if(options.concurrency <= 0 || options.keyCount <= 0 || options.durationSeconds <= 0 || options.rate < 0) {
+            throw new IllegalArgumentException("concurrency, keys and duration must be positive, rate must not be negative");
+        }
+        return options;
+    }
+
+    static Map<OperationType, Integer> parseMix(String value) {
+        Map<OperationType, Integer> mix = new EnumMap<>(OperationType.class);
+        for(String item : value.split(",")) {
+            String[] parts = item.trim().split(":");
+            int weight = (parts.length > 1) ? Integer.parseInt(parts[1].trim()) : 1;
+            if(weight < 0) {
+                throw new IllegalArgumentException("Negative weight: " + item);
+            }
+            if(weight > 0) {
+                mix.put(OperationType.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)), weight);
+            }
+        }
+        if(mix.isEmpty()) {
+            throw new IllegalArgumentException("Empty operation mix: " + value);
+        }
+        return mix;
+    }
+
+    static long parseSize(String value) {
+        String lower = value.trim().toLowerCase(Locale.ROOT);
+        long multiplier = 1;
+        if(lower.endsWith("k")) {
+            multiplier = 1024L;
+        }else if(lower.endsWith("m")) {
+            multiplier = 1024L * 1024;
+        }else if(lower.endsWith("g")) {
+            multiplier = 1024L * 1024 * 1024;
+        }
+        if(multiplier > 1) {
+            lower = lower.substring(0, lower.length() - 1);
+        }
+        return Long.parseLong(lower) * multiplier;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.FileContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * putObject body for MS3AsyncClient: the object metadata prefix followed by the content.
+ *
+ * File content is handed to the I/O reactor with FileContentEncoder.transfer when the
+ * connection supports it, so it does not pass through the heap.
+ */
+class AsyncObjectEntity extends AbstractHttpEntity implements HttpAsyncContentProducer {
+    private final BufferPool m_bufferPool;
+    private final byte[] m_metadataBin;
+    private final File m_file;
+    private final InputStream m_inputStream;
+    private final long m_contentLength;
+
+    private ByteBuffer m_metadataBuffer = null;
+    private ByteBuffer m_buffer = null;
+    private FileChannel m_fileChannel = null;
+    private ReadableByteChannel m_inputChannel = null;
+    private long m_filePosition = 0;
+
+    /**
+     * @param contentLength length of the content without the metadata, -1 if unknown
+     */
+    AsyncObjectEntity(BufferPool bufferPool, byte[] metadataBin, File file, InputStream inputStream, long contentLength) {
+        m_bufferPool = bufferPool;
+        m_metadataBin = (metadataBin != null) ? metadataBin : new byte[0];
+        m_file = file;
+        m_inputStream = inputStream;
+        m_contentLength = (file != null) ? file.length() : contentLength;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return m_file != null;
+    }
+
+    @Override
+    public long getContentLength() {
+        return (m_contentLength >= 0) ? m_metadataBin.length + m_contentLength : -1;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return m_file == null;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        InputStream content = (m_file != null) ? new FileInputStream(m_file) : m_inputStream;
+        return new SequenceInputStream(new ByteArrayInputStream(m_metadataBin), content);
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        byte[] buffer = m_bufferPool.acquire();
+        try (InputStream inputStream = getContent()) {
+            org.apache.commons.io.IOUtils.copyLarge(inputStream, outstream, buffer);
+        } finally {
+            m_bufferPool.release(buffer);
+        }
+    }
+
+    @Override
+    public void produceContent(ContentEncoder encoder, IOControl ioctrl) throws IOException {
+        if (m_metadataBuffer == null) {
+            m_metadataBuffer = ByteBuffer.wrap(m_metadataBin);
+        }
+        if (m_metadataBuffer.hasRemaining()) {
+            encoder.write(m_metadataBuffer);
+            if (m_metadataBuffer.hasRemaining()) {
+                return;
+            }
+        }
+
+        if (m_file != null) {
+            if (m_fileChannel == null) {
+                m_fileChannel = FileChannel.open(m_file.toPath(), StandardOpenOption.READ);
+            }
+            if (encoder instanceof FileContentEncoder) {
+                long transferred = ((FileContentEncoder) encoder).transfer(m_fileChannel, m_filePosition, Long.MAX_VALUE);
+                if (transferred > 0) {
+                    m_filePosition += transferred;
+                }
+                if (m_filePosition >= m_fileChannel.size()) {
+                    encoder.complete();
+                    close();
+                }
+                return;
+            }
+            produceFromChannel(encoder, m_fileChannel);
+            return;
+        }
+
+        if (m_inputChannel == null) {
+            m_inputChannel = Channels.newChannel(m_inputStream);
+        }
+        produceFromChannel(encoder, m_inputChannel);
+    }
+
+    private void produceFromChannel(ContentEncoder encoder, ReadableByteChannel channel) throws IOException {
+        if (m_buffer == null) {
+            // Held until close(), which the request producer calls on completion and on failure
+            m_buffer = ByteBuffer.wrap(m_bufferPool.acquire());
+            m_buffer.flip();
+        }
+        if (!m_buffer.hasRemaining()) {
+            m_buffer.clear();
+            int readlen = channel.read(m_buffer);
+            m_buffer.flip();
+            if (readlen < 0) {
+                encoder.complete();
+                close();
+                return;
+            }
+        }
+        encoder.write(m_buffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_metadataBuffer = null;
+        if (m_buffer != null) {
+            m_bufferPool.release(m_buffer.array());
+            m_buffer = null;
+        }
+        m_filePosition = 0;
+        if (m_fileChannel != null) {
+            m_fileChannel.close();
+            m_fileChannel = null;
+        }
+        if (m_inputChannel != null) {
+            m_inputChannel.close();
+            m_inputChannel = null;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import com.amazonaws.annotation.ThreadSafe;
+import com.amazonaws.handlers.HandlerContextKey;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the bandwidth of object transfers.
+ *
+ * A limiter may be shared by any number of transfers and clients, which then share its rate.
+ * It is set per client with MS3ClientBuilder.uploadBandwidthLimiter() / downloadBandwidthLimiter(),
+ * and per request with:
+ * <pre>
+ * request.addHandlerContext(BandwidthLimiter.REQUEST_LIMITER, limiter);
+ * </pre>
+ * on a PutObjectRequest, UploadPartRequest or GetObjectRequest. When both are set, both apply.
+ *
+ * A transfer larger than the available tokens goes into debt and waits for it to be paid back,
+ * so concurrent transfers are served roughly in order of arrival.
+ */
+@ThreadSafe
+public class BandwidthLimiter {
+    public static final HandlerContextKey<BandwidthLimiter> REQUEST_LIMITER = new HandlerContextKey<>("MS3BandwidthLimiter");
+
+    private static final long MINIMUM_BURST_BYTES = 64 * 1024;
+
+    private long m_bytesPerSecond;
+    private long m_burstBytes;
+
+    // Guarded by this. Negative when in debt.
+    private double m_tokens;
+    private long m_lastRefill;
+
+    /**
+     * @param bytesPerSecond sustained rate, the burst is a tenth of a second of it (at least 64 KiB)
+     */
+    public BandwidthLimiter(long bytesPerSecond) {
+        this(bytesPerSecond, Math.max(MINIMUM_BURST_BYTES, bytesPerSecond / 10));
+    }
+
+    /**
+     * @param bytesPerSecond sustained rate
+     * @param burstBytes bytes that can go through at once after an idle period
+     */
+    public BandwidthLimiter(long bytesPerSecond, long burstBytes) {
+        if(bytesPerSecond <= 0 || burstBytes <= 0) {
+            throw new IllegalArgumentException("bytesPerSecond and burstBytes must be positive");
+        }
+        m_bytesPerSecond = bytesPerSecond;
+        m_burstBytes = burstBytes;
+        m_tokens = burstBytes;
+        m_lastRefill = System.nanoTime();
+    }
+
+    public synchronized long getBytesPerSecond() {
+        return m_bytesPerSecond;
+    }
+
+    /**
+     * Change the rate, e.g. outside of business hours. Transfers in progress follow the new rate.
+     */
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        if(bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("bytesPerSecond must be positive: " + bytesPerSecond);
+        }
+        refill();
+        m_bytesPerSecond = bytesPerSecond;
+    }
+
+    public synchronized long getBurstBytes() {
+        return m_burstBytes;
+    }
+
+    /**
+     * Take bytes from the bucket, waiting until the rate allows it.
+     *
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            m_tokens -= bytes;
+            waitNanos = (m_tokens < 0) ? (long)(-m_tokens * TimeUnit.SECONDS.toNanos(1) / m_bytesPerSecond) : 0;
+        }
+        if(waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                InterruptedIOException exception = new InterruptedIOException("Interrupted while throttled");
+                exception.initCause(e);
+                throw exception;
+            }
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        m_tokens = Math.min(m_burstBytes, m_tokens + (double)(now - m_lastRefill) * m_bytesPerSecond / TimeUnit.SECONDS.toNanos(1));
+        m_lastRefill = now;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "[bytesPerSecond: " + m_bytesPerSecond + "; burst: " + m_burstBytes + "]";
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import com.amazonaws.annotation.ThreadSafe;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of transfer buffers shared by the upload and download paths of a client.
+ *
+ * All pooled buffers have the same size. A request for a larger buffer, or a request while
+ * the pool is empty, allocates a new one and counts as a miss. Released buffers beyond
+ * maxBuffers are left to the garbage collector.
+ *
+ * The default buffer size stays below half of the smallest G1 region (1 MiB), so buffers
+ * are never humongous allocations.
+ */
+@ThreadSafe
+public class BufferPool {
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    public static final int DEFAULT_MAX_BUFFERS = 64;
+
+    private final int m_bufferSize;
+    private final int m_maxBuffers;
+
+    // null when pooling is disabled
+    private final BlockingQueue<byte[]> m_buffers;
+
+    private final AtomicLong m_hitCount = new AtomicLong();
+    private final AtomicLong m_missCount = new AtomicLong();
+
+    public BufferPool() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_BUFFERS);
+    }
+
+    /**
+     * @param bufferSize size of the pooled buffers in bytes
+     * @param maxBuffers number of idle buffers kept, 0 to disable pooling
+     */
+    public BufferPool(int bufferSize, int maxBuffers) {
+        if(bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+        }
+        m_bufferSize = bufferSize;
+        m_maxBuffers = Math.max(0, maxBuffers);
+        m_buffers = (m_maxBuffers > 0) ? new ArrayBlockingQueue<>(m_maxBuffers) : null;
+    }
+
+    public int getBufferSize() {
+        return m_bufferSize;
+    }
+
+    public int getMaxBuffers() {
+        return m_maxBuffers;
+    }
+
+    /**
+     * @return a buffer of getBufferSize() bytes. Its content is undefined.
+     */
+    public byte[] acquire() {
+        byte[] buffer = (m_buffers != null) ? m_buffers.poll() : null;
+        if(buffer != null) {
+            m_hitCount.incrementAndGet();
+            return buffer;
+        }
+        m_missCount.incrementAndGet();
+        return new byte[m_bufferSize];
+    }
+
+    /**
+     * @return a buffer of at least minimumSize bytes. Its content is undefined.
+     */
+    public byte[] acquire(int minimumSize) {
+        if(minimumSize > m_bufferSize) {
+            m_missCount.incrementAndGet();
+            return new byte[minimumSize];
+        }
+        return acquire();
+    }
+
+    /**
+     * Give a buffer back. The caller must not use it afterwards.
+     * Buffers that were not allocated by this pool are ignored.
+     */
+    public void release(byte[] buffer) {
+        if(buffer == null || buffer.length != m_bufferSize || m_buffers == null) {
+            return;
+        }
+        m_buffers.offer(buffer);
+    }
+
+    public long getHitCount() {
+        return m_hitCount.get();
+    }
+
+    public long getMissCount() {
+        return m_missCount.get();
+    }
+
+    /**
+     * @return number of idle buffers currently held by the pool
+     */
+    public int getPooledCount() {
+        return (m_buffers != null) ? m_buffers.size() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "[hits: " + getHitCount() + "; misses: " + getMissCount() + "; pooled: " + getPooledCount() + "; max: " + m_maxBuffers + "]";
+    }
+}
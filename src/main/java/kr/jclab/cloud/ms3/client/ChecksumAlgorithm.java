@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+/**
+ * Checksum of the object content computed while it is sent or received.
+ *
+ * The client asks for it with the MS3-CHECKSUM-ALGORITHM request header. A server that supports it answers
+ * uploads and downloads with the checksum of the whole object (of the part for uploadPart) in the
+ * MS3-CHECKSUM-[algorithm] header, base64 encoded like the S3 checksum headers (big-endian for CRC-32C).
+ * Responses without the header are not checked, so older servers keep working.
+ */
+public enum ChecksumAlgorithm {
+    /** No checksum is computed or checked */
+    NONE,
+    /** CRC-32C. Cheap, and the checksums of the ranges of a parallel download can be combined */
+    CRC32C,
+    /** MD5. Only checked on single-stream downloads, it cannot be combined across ranges */
+    MD5;
+
+    static final String HEADER_ALGORITHM = "MS3-CHECKSUM-ALGORITHM";
+
+    /**
+     * @return header carrying the checksum value, null for NONE
+     */
+    public String getHeaderName() {
+        return (this != NONE) ? "MS3-CHECKSUM-" + name() : null;
+    }
+}
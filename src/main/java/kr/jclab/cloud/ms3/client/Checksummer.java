@@ -0,0 +1,251 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.annotation.NotThreadSafe;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Checksum of the object content, updated by the stream that sends or receives it so the data is read only once.
+ */
+@NotThreadSafe
+final class Checksummer {
+    private final ChecksumAlgorithm m_algorithm;
+    // One of them, depending on the algorithm
+    private final Crc32c m_crc;
+    private final MessageDigest m_digest;
+
+    private long m_length = 0;
+
+    private Checksummer(ChecksumAlgorithm algorithm) {
+        m_algorithm = algorithm;
+        if(algorithm == ChecksumAlgorithm.CRC32C) {
+            m_crc = new Crc32c();
+            m_digest = null;
+        }else{
+            m_crc = null;
+            try {
+                m_digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * @return null for ChecksumAlgorithm.NONE
+     */
+    static Checksummer create(ChecksumAlgorithm algorithm) {
+        return (algorithm != null && algorithm != ChecksumAlgorithm.NONE) ? new Checksummer(algorithm) : null;
+    }
+
+    ChecksumAlgorithm getAlgorithm() {
+        return m_algorithm;
+    }
+
+    void update(byte[] b, int off, int len) {
+        if(m_crc != null) {
+            m_crc.update(b, off, len);
+        }else{
+            m_digest.update(b, off, len);
+        }
+        m_length += len;
+    }
+
+    void reset() {
+        if(m_crc != null) {
+            m_crc.reset();
+        }else{
+            m_digest.reset();
+        }
+        m_length = 0;
+    }
+
+    /**
+     * @return number of bytes checksummed since the last reset
+     */
+    long getLength() {
+        return m_length;
+    }
+
+    /**
+     * @return the CRC-32C value, only for ChecksumAlgorithm.CRC32C
+     */
+    long getCrc() {
+        return m_crc.getValue();
+    }
+
+    /**
+     * @return the checksum of the bytes seen so far. For MD5, it also resets the digest.
+     */
+    byte[] getDigest() {
+        return (m_crc != null) ? crcBytes(m_crc.getValue()) : m_digest.digest();
+    }
+
+    static byte[] crcBytes(long crc) {
+        return new byte[] { (byte)(crc >>> 24), (byte)(crc >>> 16), (byte)(crc >>> 8), (byte)crc };
+    }
+
+    /**
+     * @return the checksum sent by the server for this algorithm, null if the response has none
+     */
+    static byte[] getResponseDigest(HttpResponse httpResponse, ChecksumAlgorithm algorithm) {
+        Header header = httpResponse.getFirstHeader(algorithm.getHeaderName());
+        return (header != null) ? decode(algorithm, header.getValue()) : null;
+    }
+
+    static byte[] decode(ChecksumAlgorithm algorithm, String value) {
+        try {
+            return Base64.getDecoder().decode(value.trim());
+        } catch (IllegalArgumentException e) {
+            throw new SdkClientException("Invalid " + algorithm + " checksum: " + value, e);
+        }
+    }
+
+    /**
+     * @param what description of the content for the error message
+     * @throws SdkClientException if both checksums are known and differ
+     */
+    static void verify(ChecksumAlgorithm algorithm, byte[] expected, byte[] actual, String what) {
+        if(expected != null && actual != null && !Arrays.equals(expected, actual)) {
+            throw new SdkClientException(algorithm + " checksum mismatch for " + what + ": expected "
+                    + Base64.getEncoder().encodeToString(expected) + ", computed " + Base64.getEncoder().encodeToString(actual));
+        }
+    }
+
+    /**
+     * Checksum the content written by an entity. Each write starts over, so a retried request is checksummed once.
+     *
+     * @param prefixLength leading bytes that are not object content (the metadata prefix)
+     */
+    HttpEntity wrap(HttpEntity entity, long prefixLength) {
+        return new HttpEntityWrapper(entity) {
+            @Override
+            public void writeTo(OutputStream outstream) throws IOException {
+                reset();
+                wrappedEntity.writeTo(new ChecksumOutputStream(outstream, prefixLength));
+            }
+        };
+    }
+
+    /**
+     * Checksum a response content stream and compare it with the expected value at the end of the stream.
+     * A mismatch is reported as an IOException from read().
+     */
+    InputStream wrap(InputStream inputStream, byte[] expected, String what) {
+        return new ChecksumInputStream(inputStream, expected, what);
+    }
+
+    private class ChecksumOutputStream extends FilterOutputStream {
+        private long m_prefixRemaining;
+
+        ChecksumOutputStream(OutputStream out, long prefixLength) {
+            super(out);
+            m_prefixRemaining = prefixLength;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int prefixBytes = (int)Math.min(len, m_prefixRemaining);
+            m_prefixRemaining -= prefixBytes;
+            if(len > prefixBytes) {
+                update(b, off + prefixBytes, len - prefixBytes);
+            }
+            out.write(b, off, len);
+        }
+    }
+
+    private class ChecksumInputStream extends FilterInputStream {
+        private final byte[] m_expected;
+        private final String m_what;
+        // Skipped bytes are not checksummed: the content can no longer be checked
+        private boolean m_skipped = false;
+        private boolean m_verified = false;
+
+        ChecksumInputStream(InputStream in, byte[] expected, String what) {
+            super(in);
+            m_expected = expected;
+            m_what = what;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = in.read();
+            if(value < 0) {
+                endOfStream();
+            }else{
+                update(new byte[] { (byte)value }, 0, 1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int readlen = in.read(b, off, len);
+            if(readlen < 0) {
+                endOfStream();
+            }else if(readlen > 0) {
+                update(b, off, readlen);
+            }
+            return readlen;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            if(skipped > 0) {
+                m_skipped = true;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void endOfStream() throws IOException {
+            if(m_verified || m_skipped) {
+                return;
+            }
+            m_verified = true;
+            try {
+                verify(m_algorithm, m_expected, getDigest(), m_what);
+            } catch (SdkClientException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Content-Encoding negotiation of MS3Client.
+ *
+ * Responses: HttpClient asks for gzip or deflate and decodes the response transparently, unless
+ * disableContentCompression() was called on the HttpClientBuilder. This configuration only decides which
+ * requests may get a compressed answer. Ranged object requests never do, because a range of encoded bytes
+ * cannot be mapped back to the object.
+ *
+ * Requests: when enabled, bodies with a compressible content type and at least minimumCompressionSize bytes
+ * (or an unknown length) are sent gzip encoded. The server must decode them; if it answers
+ * 415 Unsupported Media Type, the client stops compressing and sends the request again without it
+ * when the body is repeatable.
+ */
+public class CompressionConfiguration {
+    /** Accept compressed JSON API responses (listings, metadata, multipart state) */
+    private boolean responseCompression = true;
+
+    /** Accept compressed object content on getObject requests without a range */
+    private boolean objectResponseCompression = true;
+
+    /** Send object content and JSON request bodies gzip encoded. Requires server support */
+    private boolean requestCompression = false;
+
+    /** Bodies smaller than this are sent as is, the gzip framing would cost more than it saves */
+    private long minimumCompressionSize = 1024;
+
+    /** Deflater level. The default favors speed, so that compression does not become the bottleneck of an upload */
+    private int compressionLevel = Deflater.BEST_SPEED;
+
+    /**
+     * Content types compressed by request compression. An entry ending with '/' matches a whole type (text/),
+     * an entry starting with '+' a structured syntax suffix (+json), any other entry the exact media type.
+     */
+    private List<String> compressibleContentTypes = new ArrayList<>(Arrays.asList(
+            "text/", "application/json", "application/xml", "application/javascript",
+            "application/x-ndjson", "image/svg+xml", "+json", "+xml"));
+
+    public boolean isResponseCompression() {
+        return responseCompression;
+    }
+
+    public void setResponseCompression(boolean responseCompression) {
+        this.responseCompression = responseCompression;
+    }
+
+    public CompressionConfiguration withResponseCompression(boolean responseCompression) {
+        setResponseCompression(responseCompression);
+        return this;
+    }
+
+    public boolean isObjectResponseCompression() {
+        return objectResponseCompression;
+    }
+
+    public void setObjectResponseCompression(boolean objectResponseCompression) {
+        this.objectResponseCompression = objectResponseCompression;
+    }
+
+    public CompressionConfiguration withObjectResponseCompression(boolean objectResponseCompression) {
+        setObjectResponseCompression(objectResponseCompression);
+        return this;
+    }
+
+    public boolean isRequestCompression() {
+        return requestCompression;
+    }
+
+    public void setRequestCompression(boolean requestCompression) {
+        this.requestCompression = requestCompression;
+    }
+
+    public CompressionConfiguration withRequestCompression(boolean requestCompression) {
+        setRequestCompression(requestCompression);
+        return this;
+    }
+
+    public long getMinimumCompressionSize() {
+        return minimumCompressionSize;
+    }
+
+    public void setMinimumCompressionSize(long minimumCompressionSize) {
+        this.minimumCompressionSize = minimumCompressionSize;
+    }
+
+    public CompressionConfiguration withMinimumCompressionSize(long minimumCompressionSize) {
+        setMinimumCompressionSize(minimumCompressionSize);
+        return this;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        if(compressionLevel != Deflater.DEFAULT_COMPRESSION && (compressionLevel < Deflater.BEST_SPEED || compressionLevel > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    public CompressionConfiguration withCompressionLevel(int compressionLevel) {
+        setCompressionLevel(compressionLevel);
+        return this;
+    }
+
+    public List<String> getCompressibleContentTypes() {
+        return compressibleContentTypes;
+    }
+
+    public void setCompressibleContentTypes(List<String> compressibleContentTypes) {
+        this.compressibleContentTypes = compressibleContentTypes;
+    }
+
+    public CompressionConfiguration withCompressibleContentTypes(String... compressibleContentTypes) {
+        setCompressibleContentTypes(new ArrayList<>(Arrays.asList(compressibleContentTypes)));
+        return this;
+    }
+
+    /**
+     * @param contentType Content-Type value, parameters such as the charset are ignored. May be null.
+     */
+    public boolean isCompressible(String contentType) {
+        if(contentType == null || compressibleContentTypes == null) {
+            return false;
+        }
+        int parametersIndex = contentType.indexOf(';');
+        String mediaType = ((parametersIndex >= 0) ? contentType.substring(0, parametersIndex) : contentType).trim().toLowerCase(Locale.ROOT);
+        for(String pattern : compressibleContentTypes) {
+            if(pattern.endsWith("/") ? mediaType.startsWith(pattern)
+                    : pattern.startsWith("+") ? mediaType.endsWith(pattern)
+                    : mediaType.equals(pattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param contentLength -1 if unknown
+     */
+    boolean shouldCompressRequest(String contentType, long contentLength) {
+        return requestCompression
+                && (contentLength < 0 || contentLength >= minimumCompressionSize)
+                && isCompressible(contentType);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.annotation.ThreadSafe;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A directory upload or download started by MS3TransferManager.
+ *
+ * A file that fails does not stop the others: the transfer runs to the end and the
+ * failures are reported one by one by getFailedTransfers().
+ */
+@ThreadSafe
+public class DirectoryTransfer {
+    public static class FailedTransfer {
+        private final String key;
+        private final File file;
+        private final Exception exception;
+
+        FailedTransfer(String key, File file, Exception exception) {
+            this.key = key;
+            this.file = file;
+            this.exception = exception;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public Exception getException() {
+            return exception;
+        }
+
+        @Override
+        public String toString() {
+            return key + " (" + file + "): " + exception;
+        }
+    }
+
+    private final String m_bucketName;
+    private final String m_keyPrefix;
+    private final TransferProgress m_progress;
+    private final List<FailedTransfer> m_failedTransfers = Collections.synchronizedList(new ArrayList<>());
+    private volatile List<Future<?>> m_workers = Collections.emptyList();
+    private volatile boolean m_aborted = false;
+    // Workers inside their loop. A cancelled Future is done while its worker may still be running. Guarded by this
+    private int m_runningWorkers = 0;
+
+    DirectoryTransfer(String bucketName, String keyPrefix, TransferProgress progress) {
+        m_bucketName = bucketName;
+        m_keyPrefix = keyPrefix;
+        m_progress = progress;
+    }
+
+    void setWorkers(List<Future<?>> workers) {
+        m_workers = workers;
+    }
+
+    /**
+     * @return false if the transfer was aborted: the worker must not start
+     */
+    synchronized boolean workerStarted() {
+        if(m_aborted) {
+            return false;
+        }
+        m_runningWorkers++;
+        return true;
+    }
+
+    synchronized void workerFinished() {
+        m_runningWorkers--;
+        notifyAll();
+    }
+
+    boolean isAborted() {
+        return m_aborted;
+    }
+
+    void addFailure(String key, File file, Exception exception) {
+        m_failedTransfers.add(new FailedTransfer(key, file, exception));
+        m_progress.fileFailed();
+    }
+
+    public String getBucketName() {
+        return m_bucketName;
+    }
+
+    public String getKeyPrefix() {
+        return m_keyPrefix;
+    }
+
+    public TransferProgress getProgress() {
+        return m_progress;
+    }
+
+    public boolean isDone() {
+        for(Future<?> worker : m_workers) {
+            if(!worker.isDone()) {
+                return false;
+            }
+        }
+        synchronized (this) {
+            return m_runningWorkers == 0;
+        }
+    }
+
+    /**
+     * Wait until every file was transferred or failed.
+     *
+     * @return the failed files, empty if all of them were transferred
+     * @throws InterruptedException if interrupted while waiting, the transfer goes on
+     */
+    public List<FailedTransfer> waitForCompletion() throws InterruptedException {
+        for(Future<?> worker : m_workers) {
+            try {
+                worker.get();
+            } catch (CancellationException e) {
+                // abort()
+            } catch (ExecutionException e) {
+                // Workers record their failures, this is a bug
+                throw new SdkClientException(e.getCause());
+            }
+        }
+        synchronized (this) {
+            // Interrupted workers may still be finishing their file
+            while(m_runningWorkers > 0) {
+                wait();
+            }
+        }
+        return getFailedTransfers();
+    }
+
+    /**
+     * Stop the transfer: files not started yet are skipped, the ones in progress are interrupted.
+     * waitForCompletion() returns once the interrupted files are no longer written.
+     */
+    public void abort() {
+        m_aborted = true;
+        for(Future<?> worker : m_workers) {
+            worker.cancel(true);
+        }
+    }
+
+    /**
+     * @return the files that failed so far
+     */
+    public List<FailedTransfer> getFailedTransfers() {
+        synchronized (m_failedTransfers) {
+            return new ArrayList<>(m_failedTransfers);
+        }
+    }
+}
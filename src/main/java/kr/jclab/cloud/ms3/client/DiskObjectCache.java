@@ -0,0 +1,487 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import com.amazonaws.annotation.ThreadSafe;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.util.BinaryUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache of whole objects on the local disk, shared by the clients and the runs that use the same directory.
+ *
+ * An entry is a single file named after the bucket and the key. It holds a header (bucket, key, validator,
+ * content length and the object metadata) followed by the content. The validator is the ETag of the object,
+ * or its last modification time and length when it has no ETag: MS3Client serves an entry only if it matches
+ * the metadata returned by the server, so a changed object is never served.
+ *
+ * Entries are written to a temporary file while the caller reads the object from the server, and renamed
+ * into place once the whole content was received, so a reader never sees a partial entry. The least recently
+ * used entries are deleted once the total size exceeds maxBytes. The recency survives restarts through
+ * the modification time of the files.
+ */
+@ThreadSafe
+public class DiskObjectCache {
+    private static final String ENTRY_SUFFIX = ".obj";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x4D533343; // "MS3C"
+    private static final int VERSION = 1;
+
+    // Temporary files older than this are left over by a crash, not being written by another process
+    private static final long STALE_TEMP_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final File m_directory;
+    private final long m_maxBytes;
+    private volatile long m_maxObjectSize;
+    private final MS3JsonCodec m_jsonCodec = new MS3JsonCodec();
+
+    // File name -> size, in access order. Guarded by itself, like m_totalBytes
+    private final LinkedHashMap<String, Long> m_entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long m_totalBytes = 0;
+
+    private final AtomicLong m_hitCount = new AtomicLong();
+    private final AtomicLong m_missCount = new AtomicLong();
+    private final AtomicLong m_evictionCount = new AtomicLong();
+
+    /**
+     * @param directory created if needed. Existing entries are kept and count towards maxBytes.
+     * @param maxBytes total size of the entries. Objects larger than a quarter of it are not cached by default.
+     */
+    public DiskObjectCache(File directory, long maxBytes) throws IOException {
+        if(maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        m_directory = directory;
+        m_maxBytes = maxBytes;
+        m_maxObjectSize = maxBytes / 4;
+        Files.createDirectories(directory.toPath());
+        loadEntries();
+    }
+
+    public File getDirectory() {
+        return m_directory;
+    }
+
+    public long getMaxBytes() {
+        return m_maxBytes;
+    }
+
+    public long getMaxObjectSize() {
+        return m_maxObjectSize;
+    }
+
+    /**
+     * @param maxObjectSize larger objects are not cached
+     */
+    public void setMaxObjectSize(long maxObjectSize) {
+        m_maxObjectSize = Math.min(maxObjectSize, m_maxBytes);
+    }
+
+    public DiskObjectCache withMaxObjectSize(long maxObjectSize) {
+        setMaxObjectSize(maxObjectSize);
+        return this;
+    }
+
+    /**
+     * @param contentLength -1 if unknown
+     */
+    public boolean isCacheable(long contentLength) {
+        return contentLength >= 0 && contentLength <= m_maxObjectSize;
+    }
+
+    /**
+     * @return the validator matched by an entry of this object: its ETag, or its modification time and length. Null if it has neither.
+     */
+    static String getValidator(ObjectMetadata objectMetadata) {
+        if(objectMetadata.getETag() != null) {
+            return "etag:" + objectMetadata.getETag();
+        }
+        if(objectMetadata.getLastModified() != null) {
+            return "modified:" + objectMetadata.getLastModified().getTime() + ":" + objectMetadata.getContentLength();
+        }
+        return null;
+    }
+
+    /**
+     * Open the content of an entry.
+     *
+     * @return null if there is no entry for this object or it does not match the validator
+     */
+    Entry open(String bucketName, String key, String validator) {
+        String name = getEntryName(bucketName, key);
+        File file = new File(m_directory, name);
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            DataInputStream headerInput = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 4096));
+            if(headerInput.readInt() != MAGIC || headerInput.readInt() != VERSION
+                    || !bucketName.equals(headerInput.readUTF()) || !key.equals(headerInput.readUTF())
+                    || !validator.equals(headerInput.readUTF())) {
+                channel.close();
+                m_missCount.incrementAndGet();
+                return null;
+            }
+            long contentLength = headerInput.readLong();
+            byte[] metadataBin = new byte[headerInput.readInt()];
+            headerInput.readFully(metadataBin);
+            long contentOffset = headerLength(bucketName, key, validator, metadataBin.length);
+            if(channel.size() != contentOffset + contentLength) {
+                // Truncated by a crash before the data reached the disk
+                channel.close();
+                remove(name, file);
+                m_missCount.incrementAndGet();
+                return null;
+            }
+            ObjectMetadata objectMetadata = m_jsonCodec.readMetadata(metadataBin, 0, metadataBin.length, MetadataFormat.JSON,
+                    kr.jclab.cloud.ms3.common.model.ObjectMetadata.class);
+            channel.position(contentOffset);
+            touch(name, file, channel.size());
+            m_hitCount.incrementAndGet();
+            return new Entry(objectMetadata, contentLength, Channels.newInputStream(channel));
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            m_missCount.incrementAndGet();
+            return null;
+        } catch (IOException e) {
+            // Unreadable entry: drop it and go to the server
+            if(channel != null) {
+                try { channel.close(); } catch (IOException closee) { }
+            }
+            remove(name, file);
+            m_missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Copy the content to a new entry while the caller reads it. The entry is published when the stream reaches
+     * the end with exactly contentLength bytes, and dropped if it is closed earlier or fails.
+     *
+     * @return the stream to read instead of content, which is returned as is if the object cannot be cached
+     */
+    InputStream cacheWhileReading(InputStream content, String bucketName, String key, String validator,
+                                  ObjectMetadata objectMetadata, long contentLength) {
+        if(validator == null || !isCacheable(contentLength)) {
+            return content;
+        }
+        File tempFile = null;
+        try {
+            byte[] metadataBin = m_jsonCodec.writeMetadata(objectMetadata, MetadataFormat.JSON);
+            tempFile = File.createTempFile(getEntryName(bucketName, key) + ".", TEMP_SUFFIX, m_directory);
+            OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024);
+            DataOutputStream headerOutput = new DataOutputStream(outputStream);
+            headerOutput.writeInt(MAGIC);
+            headerOutput.writeInt(VERSION);
+            headerOutput.writeUTF(bucketName);
+            headerOutput.writeUTF(key);
+            headerOutput.writeUTF(validator);
+            headerOutput.writeLong(contentLength);
+            headerOutput.writeInt(metadataBin.length);
+            headerOutput.write(metadataBin);
+            return new CachingInputStream(content, outputStream, tempFile, getEntryName(bucketName, key), contentLength);
+        } catch (IOException e) {
+            // Not cached, the object is still read from the server
+            if(tempFile != null) {
+                tempFile.delete();
+            }
+            return content;
+        }
+    }
+
+    public void remove(String bucketName, String key) {
+        String name = getEntryName(bucketName, key);
+        remove(name, new File(m_directory, name));
+    }
+
+    /**
+     * Delete every entry.
+     */
+    public void clear() {
+        List<String> names;
+        synchronized (m_entries) {
+            names = new ArrayList<>(m_entries.keySet());
+        }
+        for(String name : names) {
+            remove(name, new File(m_directory, name));
+        }
+    }
+
+    /**
+     * @return total size of the entries known to this instance
+     */
+    public long getTotalBytes() {
+        synchronized (m_entries) {
+            return m_totalBytes;
+        }
+    }
+
+    public int size() {
+        synchronized (m_entries) {
+            return m_entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return m_hitCount.get();
+    }
+
+    public long getMissCount() {
+        return m_missCount.get();
+    }
+
+    /**
+     * @return number of entries deleted because the cache was full
+     */
+    public long getEvictionCount() {
+        return m_evictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "[hits: " + getHitCount() + "; misses: " + getMissCount() + "; evictions: " + getEvictionCount()
+                + "; size: " + getTotalBytes() + "/" + m_maxBytes + " bytes]";
+    }
+
+    static final class Entry {
+        final ObjectMetadata objectMetadata;
+        final long contentLength;
+        final InputStream content;
+
+        Entry(ObjectMetadata objectMetadata, long contentLength, InputStream content) {
+            this.objectMetadata = objectMetadata;
+            this.contentLength = contentLength;
+            this.content = content;
+        }
+    }
+
+    private static String getEntryName(String bucketName, String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return BinaryUtils.toHex(digest.digest((bucketName + "/" + key).getBytes(StandardCharsets.UTF_8))) + ENTRY_SUFFIX;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long headerLength(String bucketName, String key, String validator, int metadataLength) {
+        return 4 + 4 + utfLength(bucketName) + utfLength(key) + utfLength(validator) + 8 + 4 + metadataLength;
+    }
+
+    // Length written by DataOutput.writeUTF (modified UTF-8 with a 2 byte length)
+    private static int utfLength(String value) {
+        int length = 2;
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += (c >= 0x0001 && c <= 0x007F) ? 1 : (c > 0x07FF) ? 3 : 2;
+        }
+        return length;
+    }
+
+    private void loadEntries() {
+        File[] files = m_directory.listFiles();
+        if(files == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<File> entryFiles = new ArrayList<>();
+        for(File file : files) {
+            if(file.getName().endsWith(ENTRY_SUFFIX)) {
+                entryFiles.add(file);
+            }else if(file.getName().endsWith(TEMP_SUFFIX) && now - file.lastModified() > STALE_TEMP_MILLIS) {
+                file.delete();
+            }
+        }
+        // Least recently used first
+        entryFiles.sort(Comparator.comparingLong(File::lastModified));
+        synchronized (m_entries) {
+            for(File file : entryFiles) {
+                long size = file.length();
+                m_entries.put(file.getName(), size);
+                m_totalBytes += size;
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Record an access, also in the file so that the next run knows it
+     */
+    private void touch(String name, File file, long size) {
+        synchronized (m_entries) {
+            Long previousSize = m_entries.put(name, size);
+            m_totalBytes += size - ((previousSize != null) ? previousSize : 0);
+        }
+        file.setLastModified(System.currentTimeMillis());
+        evict();
+    }
+
+    private void remove(String name, File file) {
+        synchronized (m_entries) {
+            Long size = m_entries.remove(name);
+            if(size != null) {
+                m_totalBytes -= size;
+            }
+        }
+        file.delete();
+    }
+
+    private void evict() {
+        while(true) {
+            String name;
+            synchronized (m_entries) {
+                if(m_totalBytes <= m_maxBytes || m_entries.isEmpty()) {
+                    return;
+                }
+                Map.Entry<String, Long> eldest = m_entries.entrySet().iterator().next();
+                name = eldest.getKey();
+                m_entries.remove(name);
+                m_totalBytes -= eldest.getValue();
+            }
+            // An open entry stays readable until it is closed
+            new File(m_directory, name).delete();
+            m_evictionCount.incrementAndGet();
+        }
+    }
+
+    private void publish(File tempFile, String name) throws IOException {
+        Path target = new File(m_directory, name).toPath();
+        try {
+            Files.move(tempFile.toPath(), target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        touch(name, target.toFile(), Files.size(target));
+    }
+
+    private class CachingInputStream extends FilterInputStream {
+        private final OutputStream m_outputStream;
+        private final File m_tempFile;
+        private final String m_name;
+        private final long m_contentLength;
+        private long m_written = 0;
+        // Set once the entry was published or abandoned
+        private boolean m_done = false;
+
+        CachingInputStream(InputStream in, OutputStream outputStream, File tempFile, String name, long contentLength) {
+            super(in);
+            m_outputStream = outputStream;
+            m_tempFile = tempFile;
+            m_name = name;
+            m_contentLength = contentLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value;
+            try {
+                value = in.read();
+            } catch (IOException e) {
+                abandon();
+                throw e;
+            }
+            if(value < 0) {
+                endOfStream();
+            }else{
+                write(new byte[] { (byte)value }, 0, 1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int readlen;
+            try {
+                readlen = in.read(b, off, len);
+            } catch (IOException e) {
+                abandon();
+                throw e;
+            }
+            if(readlen < 0) {
+                endOfStream();
+            }else if(readlen > 0) {
+                write(b, off, readlen);
+            }
+            return readlen;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes would be missing from the entry
+            abandon();
+            return in.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            abandon();
+            super.close();
+        }
+
+        private void write(byte[] b, int off, int len) {
+            if(m_done) {
+                return;
+            }
+            try {
+                m_outputStream.write(b, off, len);
+                m_written += len;
+            } catch (IOException e) {
+                // e.g. disk full: the caller still gets the content
+                abandon();
+            }
+        }
+
+        private void endOfStream() {
+            if(m_done) {
+                return;
+            }
+            if(m_written != m_contentLength) {
+                abandon();
+                return;
+            }
+            m_done = true;
+            try {
+                m_outputStream.close();
+                publish(m_tempFile, m_name);
+            } catch (IOException e) {
+                m_tempFile.delete();
+            }
+        }
+
+        private void abandon() {
+            if(m_done) {
+                return;
+            }
+            m_done = true;
+            try { m_outputStream.close(); } catch (IOException closee) { }
+            m_tempFile.delete();
+        }
+    }
+}
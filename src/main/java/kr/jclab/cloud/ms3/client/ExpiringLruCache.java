@@ -0,0 +1,224 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import com.amazonaws.annotation.ThreadSafe;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Size bounded LRU cache whose entries expire after a fixed time to live.
+ *
+ * Expired entries are not dropped on lookup: they stay available through peek() until they are
+ * replaced or evicted, so a caller can revalidate them (e.g. with an ETag) instead of fetching again.
+ */
+@ThreadSafe
+public class ExpiringLruCache<K, V> {
+    private static class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int m_maxEntries;
+    private final long m_ttlNanos;
+
+    // Guarded by itself
+    private final LinkedHashMap<K, Entry<V>> m_entries;
+    // Incremented by every removal, guarded by m_entries
+    private long m_generation = 0;
+    // Generation of the last removal of each recently removed key, oldest first, guarded by m_entries
+    private final LinkedHashMap<K, Long> m_removals;
+    // Generation of the last removal of any key without an entry in m_removals, guarded by m_entries
+    private long m_removalFloor = 0;
+
+    private final AtomicLong m_hitCount = new AtomicLong();
+    private final AtomicLong m_missCount = new AtomicLong();
+    private final AtomicLong m_evictionCount = new AtomicLong();
+
+    /**
+     * @param maxEntries maximum number of entries, the least recently used one is evicted beyond it
+     * @param ttlMillis time to live of an entry in milliseconds
+     */
+    public ExpiringLruCache(int maxEntries, long ttlMillis) {
+        if(maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        m_maxEntries = maxEntries;
+        m_ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        m_entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if(size() > m_maxEntries) {
+                    m_evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        m_removals = new LinkedHashMap<K, Long>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Long> eldest) {
+                if(size() > m_maxEntries) {
+                    // Removals are recorded in generation order, so the floor covers every dropped key
+                    m_removalFloor = eldest.getValue();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public int getMaxEntries() {
+        return m_maxEntries;
+    }
+
+    public long getTtlMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(m_ttlNanos);
+    }
+
+    /**
+     * @return the value if it is present and not expired, otherwise null. Counted as a hit or a miss.
+     */
+    public V get(K key) {
+        Entry<V> entry;
+        synchronized (m_entries) {
+            entry = m_entries.get(key);
+        }
+        if(entry != null && entry.expiresAt - System.nanoTime() > 0) {
+            m_hitCount.incrementAndGet();
+            return entry.value;
+        }
+        m_missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @return the value even if expired, without counting a hit or a miss
+     */
+    public V peek(K key) {
+        synchronized (m_entries) {
+            Entry<V> entry = m_entries.get(key);
+            return (entry != null) ? entry.value : null;
+        }
+    }
+
+    /**
+     * Store a value, or restart the time to live of a revalidated one.
+     */
+    public void put(K key, V value) {
+        Entry<V> entry = new Entry<>(value, System.nanoTime() + m_ttlNanos);
+        synchronized (m_entries) {
+            m_entries.put(key, entry);
+        }
+    }
+
+    /**
+     * @return a token to take before fetching a value, for put(key, value, generation)
+     */
+    long getGeneration() {
+        synchronized (m_entries) {
+            return m_generation;
+        }
+    }
+
+    /**
+     * Store a value fetched after generation was taken, unless the key was removed since then:
+     * the value may predate the change that caused the removal. Removals of other keys do not matter.
+     *
+     * @return true if the value was stored
+     */
+    boolean put(K key, V value, long generation) {
+        Entry<V> entry = new Entry<>(value, System.nanoTime() + m_ttlNanos);
+        synchronized (m_entries) {
+            Long removal = m_removals.get(key);
+            if(((removal != null) ? removal : m_removalFloor) > generation) {
+                return false;
+            }
+            m_entries.put(key, entry);
+            return true;
+        }
+    }
+
+    public void remove(K key) {
+        synchronized (m_entries) {
+            m_generation++;
+            // Removed first so that the key moves to the newest position
+            m_removals.remove(key);
+            m_removals.put(key, m_generation);
+            m_entries.remove(key);
+        }
+    }
+
+    public void removeIf(Predicate<? super K> predicate) {
+        synchronized (m_entries) {
+            // The predicate may match keys being fetched that have no entry yet
+            m_generation++;
+            m_removals.clear();
+            m_removalFloor = m_generation;
+            Iterator<K> iterator = m_entries.keySet().iterator();
+            while(iterator.hasNext()) {
+                if(predicate.test(iterator.next())) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (m_entries) {
+            m_generation++;
+            m_removals.clear();
+            m_removalFloor = m_generation;
+            m_entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (m_entries) {
+            return m_entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return m_hitCount.get();
+    }
+
+    public long getMissCount() {
+        return m_missCount.get();
+    }
+
+    /**
+     * @return number of entries dropped because the cache was full
+     */
+    public long getEvictionCount() {
+        return m_evictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "[hits: " + getHitCount() + "; misses: " + getMissCount() + "; evictions: " + getEvictionCount() + "; size: " + size() + "/" + m_maxEntries + "]";
+    }
+}
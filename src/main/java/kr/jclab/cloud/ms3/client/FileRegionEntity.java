@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Repeatable entity over a region of a file, used for multipart upload parts and file uploads.
+ *
+ * An optional prefix (the MS3 metadata block) is sent before the file content and counted in the Content-Length.
+ * The file is read with positional reads, so the entity can be written any number of times and concurrently.
+ */
+class FileRegionEntity extends AbstractHttpEntity {
+    private static final byte[] EMPTY_PREFIX = new byte[0];
+
+    private final BufferPool m_bufferPool;
+    private final byte[] m_prefix;
+    private final File m_file;
+    private final long m_offset;
+    private final long m_length;
+
+    FileRegionEntity(BufferPool bufferPool, File file, long offset, long length) {
+        this(bufferPool, null, file, offset, length);
+    }
+
+    FileRegionEntity(BufferPool bufferPool, byte[] prefix, File file, long offset, long length) {
+        m_bufferPool = bufferPool;
+        m_prefix = (prefix != null) ? prefix : EMPTY_PREFIX;
+        m_file = file;
+        m_offset = offset;
+        m_length = length;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return m_prefix.length + m_length;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        FileInputStream inputStream = new FileInputStream(m_file);
+        try {
+            inputStream.getChannel().position(m_offset);
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+        InputStream content = new BoundedInputStream(inputStream, m_length);
+        if(m_prefix.length > 0) {
+            content = new SequenceInputStream(new ByteArrayInputStream(m_prefix), content);
+        }
+        return content;
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        if(m_prefix.length > 0) {
+            outstream.write(m_prefix);
+        }
+        byte[] bufferArray = m_bufferPool.acquire();
+        ByteBuffer buffer = ByteBuffer.wrap(bufferArray);
+        try (FileChannel channel = FileChannel.open(m_file.toPath(), StandardOpenOption.READ)) {
+            long position = m_offset;
+            long remaining = m_length;
+            while(remaining > 0) {
+                buffer.clear();
+                if(remaining < buffer.capacity()) {
+                    buffer.limit((int)remaining);
+                }
+                int readlen = channel.read(buffer, position);
+                if(readlen < 0) {
+                    throw new EOFException("File is shorter than expected: " + m_file);
+                }
+                outstream.write(bufferArray, 0, readlen);
+                position += readlen;
+                remaining -= readlen;
+            }
+        } finally {
+            m_bufferPool.release(bufferArray);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Request entity sent gzip encoded, chunked because the encoded length is not known in advance.
+ *
+ * Repeatable when the wrapped entity is: each write compresses it again.
+ * getContent() compresses the content of the wrapped entity while it is read.
+ */
+class GzipRequestEntity extends HttpEntityWrapper {
+    static final String GZIP = "gzip";
+
+    private static final int DEFLATE_BUFFER_SIZE = 64 * 1024;
+
+    private final int m_level;
+
+    GzipRequestEntity(HttpEntity wrappedEntity, int level) {
+        super(wrappedEntity);
+        m_level = level;
+    }
+
+    HttpEntity getWrappedEntity() {
+        return wrappedEntity;
+    }
+
+    @Override
+    public Header getContentEncoding() {
+        return new BasicHeader(HTTP.CONTENT_ENCODING, GZIP);
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return true;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return new GzipInputStream(wrappedEntity.getContent(), m_level);
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        LevelGzipOutputStream gzipStream = new LevelGzipOutputStream(outstream, m_level);
+        try {
+            wrappedEntity.writeTo(gzipStream);
+            // Writes the trailer without closing the connection stream, HttpClient does it
+            gzipStream.finish();
+            gzipStream.flush();
+        } finally {
+            gzipStream.end();
+        }
+    }
+
+    /**
+     * Gzip encoding of a stream, produced as it is read
+     */
+    private static class GzipInputStream extends InputStream {
+        // Magic number, deflate method, no flags, no modification time, no extra flags, unknown OS
+        private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+        private final InputStream m_source;
+        private final Deflater m_deflater;
+        private final CRC32 m_crc = new CRC32();
+        private final byte[] m_input = new byte[DEFLATE_BUFFER_SIZE];
+        // Header or trailer not read yet
+        private byte[] m_pending = HEADER;
+        private int m_pendingOffset = 0;
+        private boolean m_trailerWritten = false;
+
+        GzipInputStream(InputStream source, int level) {
+            m_source = source;
+            m_deflater = new Deflater(level, true);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int readlen = read(b, 0, 1);
+            return (readlen < 0) ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0) {
+                return 0;
+            }
+            while(true) {
+                if(m_pendingOffset < m_pending.length) {
+                    int count = Math.min(len, m_pending.length - m_pendingOffset);
+                    System.arraycopy(m_pending, m_pendingOffset, b, off, count);
+                    m_pendingOffset += count;
+                    return count;
+                }
+                if(m_trailerWritten) {
+                    return -1;
+                }
+                if(!m_deflater.finished()) {
+                    if(m_deflater.needsInput()) {
+                        int readlen = m_source.read(m_input);
+                        if(readlen < 0) {
+                            m_deflater.finish();
+                        }else{
+                            m_crc.update(m_input, 0, readlen);
+                            m_deflater.setInput(m_input, 0, readlen);
+                        }
+                    }
+                    int deflated = m_deflater.deflate(b, off, len);
+                    if(deflated > 0) {
+                        return deflated;
+                    }
+                    continue;
+                }
+                m_pending = trailer(m_crc.getValue(), m_deflater.getBytesRead());
+                m_pendingOffset = 0;
+                m_trailerWritten = true;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            m_deflater.end();
+            m_source.close();
+        }
+
+        // CRC-32 and length modulo 2^32 of the uncompressed data, little endian
+        private static byte[] trailer(long crc, long length) {
+            byte[] trailer = new byte[8];
+            for(int i = 0; i < 4; i++) {
+                trailer[i] = (byte) (crc >>> (i * 8));
+                trailer[4 + i] = (byte) (length >>> (i * 8));
+            }
+            return trailer;
+        }
+    }
+
+    private static class LevelGzipOutputStream extends GZIPOutputStream {
+        LevelGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, DEFLATE_BUFFER_SIZE);
+            def.setLevel(level);
+        }
+
+        /**
+         * Free the native deflater now rather than at garbage collection
+         */
+        void end() {
+            def.end();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.annotation.SdkInternalApi;
+import com.amazonaws.annotation.ThreadSafe;
+import com.amazonaws.services.s3.model.*;
+import com.amazonaws.util.StringUtils;
+import kr.jclab.cloud.ms3.common.dto.BucketsListDTO;
+import kr.jclab.cloud.ms3.common.dto.ListObjectsDTO;
+import kr.jclab.cloud.ms3.common.dto.PutObjectDTO;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import static kr.jclab.cloud.ms3.client.MS3Protocol.isHttpStatusSuccess;
+import static kr.jclab.cloud.ms3.client.MS3Protocol.throwErrorResponse;
+
+/**
+ * Non-blocking MS3 client on Apache HttpAsyncClient.
+ *
+ * It speaks the same protocol as MS3Client, but no thread waits for the network:
+ * every operation returns a CompletableFuture that is completed by the I/O reactor.
+ * Responses are buffered before the future completes, so getObject is meant for
+ * objects that fit in memory; use MS3Client to stream large objects.
+ */
+@ThreadSafe
+public class MS3AsyncClient {
+    // END BY '/'
+    private final String m_serverUrl;
+
+    // Thread safe
+    private final CloseableHttpAsyncClient m_httpAsyncClient;
+
+    // Thread safe
+    private final MS3JsonCodec m_jsonCodec;
+
+    private final BufferPool m_bufferPool;
+
+    // Offered on getObject. Uploads keep JSON frames: the async client does not negotiate
+    private final MetadataFormat m_metadataFormat;
+
+    @SdkInternalApi
+    MS3AsyncClient(String serverUrl, CloseableHttpAsyncClient httpAsyncClient, MS3JsonCodec jsonCodec, BufferPool bufferPool, MetadataFormat metadataFormat) {
+        m_serverUrl = serverUrl;
+        m_httpAsyncClient = httpAsyncClient;
+        m_jsonCodec = jsonCodec;
+        m_bufferPool = bufferPool;
+        m_metadataFormat = metadataFormat;
+    }
+
+    public static MS3ClientBuilder builder() {
+        return MS3ClientBuilder.standard();
+    }
+
+    private interface ResponseHandler<T> {
+        T handle(HttpResponse httpResponse, int statusCode) throws IOException;
+    }
+
+    private <T> CompletableFuture<T> execute(HttpUriRequest httpRequest, ResponseHandler<T> handler) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Future<HttpResponse> httpFuture = m_httpAsyncClient.execute(httpRequest, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse httpResponse) {
+                try {
+                    future.complete(handler.handle(httpResponse, httpResponse.getStatusLine().getStatusCode()));
+                } catch (IOException e) {
+                    future.completeExceptionally(new SdkClientException(e));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                future.completeExceptionally(new SdkClientException(e));
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel(false);
+            }
+        });
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                httpFuture.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    private <T> CompletableFuture<T> apiRequest(HttpUriRequest httpRequest, Class<T> objectClass) {
+        httpRequest.addHeader("Accept", MS3Protocol.MEDIA_TYPE_JSON);
+        return execute(httpRequest, (httpResponse, statusCode) -> {
+            if(isHttpStatusSuccess(statusCode)) {
+                return m_jsonCodec.readEntity(httpResponse.getEntity(), objectClass);
+            }
+            throwErrorResponse(statusCode);
+            throw new SdkClientException("Error code: " + statusCode);
+        });
+    }
+
+    public CompletableFuture<List<Bucket>> listBuckets() {
+        HttpUriRequest httpRequest = new HttpGet(m_serverUrl + "api/buckets/list");
+        return apiRequest(httpRequest, BucketsListDTO.Response.class)
+                .thenApply(MS3Protocol::toBucketList);
+    }
+
+    public CompletableFuture<ObjectListing> listObjects(String bucketName) {
+        return listObjects(new ListObjectsRequest(bucketName, null, null, null, null));
+    }
+
+    public CompletableFuture<ObjectListing> listObjects(String bucketName, String prefix) {
+        return listObjects(new ListObjectsRequest(bucketName, prefix, null, null, null));
+    }
+
+    public CompletableFuture<ObjectListing> listObjects(ListObjectsRequest listObjectsRequest) {
+        HttpUriRequest httpRequest = new HttpGet(MS3Protocol.listObjectsUri(m_serverUrl,
+                listObjectsRequest.getBucketName(),
+                listObjectsRequest.getPrefix(),
+                listObjectsRequest.getDelimiter(),
+                listObjectsRequest.getMarker(),
+                listObjectsRequest.getMaxKeys()));
+        httpRequest.addHeader("Accept", MS3Protocol.MEDIA_TYPE_JSON);
+        return execute(httpRequest, (httpResponse, statusCode) -> {
+            if(isHttpStatusSuccess(statusCode)) {
+                ObjectListing objectListing = MS3Protocol.newObjectListing(listObjectsRequest);
+                // The response is already buffered: there is nothing to abort
+                try (ObjectSummaryIterator iterator = new ObjectSummaryIterator(null, httpResponse, m_jsonCodec.createParser(httpResponse.getEntity()), listObjectsRequest.getPrefix())) {
+                    ListObjectsDTO.Response page = MS3Protocol.readListingPage(iterator, objectListing.getObjectSummaries(),
+                            listObjectsRequest.getPrefix(),
+                            listObjectsRequest.getDelimiter(),
+                            listObjectsRequest.getMarker(),
+                            listObjectsRequest.getMaxKeys());
+                    MS3Protocol.setListingPage(objectListing, page);
+                }
+                return objectListing;
+            }
+            throwErrorResponse(statusCode);
+            throw new SdkClientException("Error code: " + statusCode);
+        });
+    }
+
+    public CompletableFuture<ObjectMetadata> getObjectMetadata(String bucketName, String key) {
+        return getObjectMetadata(new GetObjectMetadataRequest(bucketName, key));
+    }
+
+    public CompletableFuture<ObjectMetadata> getObjectMetadata(GetObjectMetadataRequest getObjectMetadataRequest) {
+        HttpUriRequest httpRequest = new HttpGet(m_serverUrl + "api/bucket/metadata/" + getObjectMetadataRequest.getBucketName() + "/" + getObjectMetadataRequest.getKey());
+        return apiRequest(httpRequest, kr.jclab.cloud.ms3.common.model.ObjectMetadata.class)
+                .thenApply(objectMetadata -> (ObjectMetadata) objectMetadata);
+    }
+
+    public CompletableFuture<S3Object> getObject(String bucketName, String key) {
+        return getObject(new GetObjectRequest(bucketName, key));
+    }
+
+    public CompletableFuture<S3Object> getObject(GetObjectRequest getObjectRequest) {
+        HttpGet httpRequest = new HttpGet(m_serverUrl + "api/bucket/object/" + getObjectRequest.getBucketName() + "/" + getObjectRequest.getKey());
+        httpRequest.addHeader("Accept", "*/*");
+        if(getObjectRequest.getRange() != null) {
+            httpRequest.addHeader("Range", MS3Protocol.rangeHeader(getObjectRequest.getRange()));
+        }
+        MS3Protocol.acceptMetadataFormat(httpRequest, m_metadataFormat);
+        return execute(httpRequest, (httpResponse, statusCode) -> {
+            if(isHttpStatusSuccess(statusCode)) {
+                // The body is already buffered, nothing to abort
+                return MS3Protocol.readObjectResponse(m_jsonCodec, m_bufferPool, getObjectRequest, httpResponse, null, null, ChecksumAlgorithm.NONE);
+            }
+            throwErrorResponse(statusCode);
+            throw new SdkClientException("Error code: " + statusCode);
+        });
+    }
+
+    public CompletableFuture<PutObjectResult> putObject(String bucketName, String key, File file) {
+        return putObject(new PutObjectRequest(bucketName, key, file)
+                .withMetadata(new ObjectMetadata()));
+    }
+
+    public CompletableFuture<PutObjectResult> putObject(String bucketName, String key, String content) {
+        byte[] contentBytes = content.getBytes(StringUtils.UTF8);
+
+        InputStream is = new ByteArrayInputStream(contentBytes);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType("text/plain");
+        metadata.setContentLength(contentBytes.length);
+
+        return putObject(new PutObjectRequest(bucketName, key, is, metadata));
+    }
+
+    /**
+     * Upload an object.
+     *
+     * File content is sent without blocking. InputStream content is read on the I/O reactor thread,
+     * so it should not block either (e.g. a ByteArrayInputStream).
+     */
+    public CompletableFuture<PutObjectResult> putObject(PutObjectRequest putObjectRequest) {
+        HttpPut httpRequest = new HttpPut(m_serverUrl + "api/bucket/object/" + putObjectRequest.getBucketName() + "/" + putObjectRequest.getKey());
+        final byte[] metadataBin;
+        try {
+            metadataBin = (putObjectRequest.getMetadata() != null) ? m_jsonCodec.writeValueAsBytes(putObjectRequest.getMetadata()) : null;
+        } catch (IOException e) {
+            CompletableFuture<PutObjectResult> future = new CompletableFuture<>();
+            future.completeExceptionally(new SdkClientException(e));
+            return future;
+        }
+        long contentLength = (putObjectRequest.getMetadata() != null && putObjectRequest.getMetadata().getContentLength() > 0)
+                ? putObjectRequest.getMetadata().getContentLength() : -1;
+        httpRequest.setEntity(new AsyncObjectEntity(m_bufferPool, metadataBin, putObjectRequest.getFile(), putObjectRequest.getInputStream(), contentLength));
+        MS3Protocol.setMetadataFrame(httpRequest, metadataBin, MetadataFormat.JSON);
+        return apiRequest(httpRequest, PutObjectDTO.Response.class)
+                .thenApply(responseBody -> {
+                    PutObjectResult result = new PutObjectResult();
+                    if(metadataBin != null) {
+                        result.setMetadata(putObjectRequest.getMetadata());
+                    }
+                    return result;
+                });
+    }
+
+    /**
+     * Stop the I/O reactor and close all connections.
+     */
+    public void shutdown() {
+        try {
+            m_httpAsyncClient.close();
+        } catch (IOException e) {
+            throw new SdkClientException(e);
+        }
+    }
+}
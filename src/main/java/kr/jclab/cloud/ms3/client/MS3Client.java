@@ -21,8 +21,10 @@ import com.amazonaws.HttpMethod;
 import com.amazonaws.SdkClientException;
 import com.amazonaws.annotation.SdkInternalApi;
 import com.amazonaws.annotation.ThreadSafe;
+import com.amazonaws.event.ProgressEventType;
+import com.amazonaws.event.ProgressListener;
+import com.amazonaws.event.SDKProgressPublisher;
 import com.amazonaws.services.s3.*;
-import com.amazonaws.services.s3.internal.AmazonS3ExceptionBuilder;
 import com.amazonaws.services.s3.internal.ServiceUtils;
 import com.amazonaws.services.s3.model.*;
 import com.amazonaws.services.s3.model.ObjectMetadata;
@@ -31,27 +33,46 @@ import com.amazonaws.services.s3.model.inventory.InventoryConfiguration;
 import com.amazonaws.services.s3.model.metrics.MetricsConfiguration;
 import com.amazonaws.services.s3.waiters.AmazonS3Waiters;
 import com.amazonaws.util.StringUtils;
-import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.amazonaws.util.SdkHttpUtils;
+import kr.jclab.cloud.ms3.client.metrics.MS3Metrics;
+import kr.jclab.cloud.ms3.client.metrics.MS3Metrics.Operation;
+import kr.jclab.cloud.ms3.common.PresignedUrlSigner;
 import kr.jclab.cloud.ms3.common.dto.*;
 import org.apache.commons.logging.Log;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 
 import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES;
+import static kr.jclab.cloud.ms3.client.MS3Protocol.isHttpStatusSuccess;
+import static kr.jclab.cloud.ms3.client.MS3Protocol.throwErrorResponse;
 
 /*
  * Diary in source #DI2S-JICHAN #20181225
@@ -74,6 +95,8 @@ import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKN
 public class MS3Client implements AmazonS3 {
     private final String MediaType_JSON = "application/json";
 
+    private static final long DEFAULT_PRESIGNED_URL_EXPIRATION_SECONDS = 15 * 60;
+
     private Log log = null;
     private volatile AmazonS3Waiters waiters = null;
 
@@ -83,15 +106,109 @@ public class MS3Client implements AmazonS3 {
     // Thread safe
     private HttpClient m_httpClient;
 
+    // null when the HttpClient was not built by MS3ClientBuilder
+    private final PoolingHttpClientConnectionManager m_connectionManager;
+
+    // Thread safe
+    private final MS3JsonCodec m_jsonCodec;
+
+    private final TransferConfiguration m_transferConfiguration;
+
+    // Thread safe, may be shared with other clients
+    private final BufferPool m_bufferPool;
+
+    // Thread safe, may be shared with other clients
+    private final RetryPolicy m_retryPolicy;
+
+    // Thread safe, MS3Metrics.NO_OP when not configured
+    private final MS3Metrics m_metrics;
+
+    // Thread safe, null for no limit
+    private final BandwidthLimiter m_uploadBandwidthLimiter;
+    private final BandwidthLimiter m_downloadBandwidthLimiter;
+
+    private final CompressionConfiguration m_compressionConfiguration;
+
+    // Set once the server answered 415 to a compressed request body
+    private volatile boolean m_requestCompressionRejected = false;
+
+    // Set once the server answered an initiate request of putObject as not implemented,
+    // or as not found while a single request to the same bucket succeeded
+    private volatile boolean m_multipartUploadUnsupported = false;
+
+    private final MetadataFormat m_metadataFormat;
+
+    private final ChecksumAlgorithm m_checksumAlgorithm;
+
+    // Set when the server sent a metadata frame in m_metadataFormat: it then reads that format as well.
+    // Cleared when a put in that format is rejected.
+    private volatile boolean m_metadataFormatNegotiated = false;
+
+    // null when disabled. Keys are "bucket/key".
+    private final ExpiringLruCache<String, ObjectMetadata> m_metadataCache;
+
+    // Server generated URIs of getUrl, null when disabled
+    private final ExpiringLruCache<String, URL> m_urlCache;
+
+    // null when no presign key is configured
+    private final PresignedUrlSigner m_presignedUrlSigner;
+
+    // null when disabled
+    private final DiskObjectCache m_diskCache;
+
+    // null when disabled
+    private final OffHeapObjectCache m_memoryCache;
+
+    // Created on first use when not given by the builder
+    private volatile ExecutorService m_transferExecutor;
+    private final boolean m_ownsTransferExecutor;
+
     private MS3Client() throws NotImplementedException {
         m_serverUrl = null;
+        m_jsonCodec = null;
+        m_transferConfiguration = null;
+        m_connectionManager = null;
+        m_bufferPool = null;
+        m_retryPolicy = null;
+        m_metrics = null;
+        m_uploadBandwidthLimiter = null;
+        m_downloadBandwidthLimiter = null;
+        m_compressionConfiguration = null;
+        m_metadataFormat = null;
+        m_checksumAlgorithm = null;
+        m_metadataCache = null;
+        m_urlCache = null;
+        m_presignedUrlSigner = null;
+        m_diskCache = null;
+        m_memoryCache = null;
+        m_ownsTransferExecutor = false;
         throw new NotImplementedException();
     }
 
     @SdkInternalApi
-    MS3Client(String serverUrl, HttpClient httpClient) {
-        m_serverUrl = serverUrl;
+    MS3Client(MS3ClientBuilder builder, HttpClient httpClient, PoolingHttpClientConnectionManager connectionManager) {
+        m_serverUrl = builder.getServerUrl();
         m_httpClient = httpClient;
+        m_connectionManager = connectionManager;
+        m_jsonCodec = builder.getJsonCodec();
+        m_transferConfiguration = builder.getTransferConfiguration();
+        m_bufferPool = builder.getBufferPool();
+        m_retryPolicy = builder.getRetryPolicy();
+        m_metrics = builder.getMetrics();
+        m_uploadBandwidthLimiter = builder.getUploadBandwidthLimiter();
+        m_downloadBandwidthLimiter = builder.getDownloadBandwidthLimiter();
+        m_compressionConfiguration = builder.getCompressionConfiguration();
+        m_metadataFormat = builder.getMetadataFormat();
+        m_checksumAlgorithm = builder.getChecksumAlgorithm();
+        m_metadataCache = (builder.getMetadataCacheSize() > 0)
+                ? new ExpiringLruCache<>(builder.getMetadataCacheSize(), builder.getMetadataCacheTTL()) : null;
+        m_urlCache = (builder.getUrlCacheSize() > 0)
+                ? new ExpiringLruCache<>(builder.getUrlCacheSize(), builder.getUrlCacheTTL()) : null;
+        m_presignedUrlSigner = builder.getPresignedUrlSigner();
+        m_diskCache = builder.getDiskCache();
+        m_memoryCache = builder.getMemoryCache();
+        m_transferExecutor = builder.getTransferExecutor();
+        m_ownsTransferExecutor = (m_transferExecutor == null);
     }
 
     public static MS3ClientBuilder builder() {
@@ -101,12 +218,14 @@ public class MS3Client implements AmazonS3 {
     // ================================================== Implementations ==================================================
 
     private class ApiRequestContext<T> {
+        public final Operation operation;
         public HttpUriRequest httpRequest;
         public HttpResponse httpResponse = null;
         public T responseBody = null;
         private Class<T> objectClass;
 
-        public ApiRequestContext(HttpUriRequest httpRequest, Class<T> objectClass) {
+        public ApiRequestContext(Operation operation, HttpUriRequest httpRequest, Class<T> objectClass) {
+            this.operation = operation;
             this.httpRequest = httpRequest;
             this.objectClass = objectClass;
         }
@@ -124,6 +243,26 @@ public class MS3Client implements AmazonS3 {
         return waiters;
     }
 
+    private ExecutorService getTransferExecutor() {
+        if (m_transferExecutor == null) {
+            synchronized (this) {
+                if (m_transferExecutor == null) {
+                    m_transferExecutor = Executors.newFixedThreadPool(Math.max(1, m_transferConfiguration.getConcurrency()), new ThreadFactory() {
+                        private final AtomicInteger threadCount = new AtomicInteger(0);
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "ms3-transfer-" + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+            }
+        }
+        return m_transferExecutor;
+    }
+
     /**
      * Main implementation
      * @param bucketName
@@ -132,26 +271,40 @@ public class MS3Client implements AmazonS3 {
      */
     @Override
     public URL getUrl(String bucketName, String key) {
+        String cacheKey = null;
+        if(m_urlCache != null) {
+            cacheKey = bucketName + "/" + key;
+            URL url = m_urlCache.get(cacheKey);
+            if(url != null) {
+                return url;
+            }
+        }
         HttpUriRequest httpRequest = new HttpGet(m_serverUrl + "api/bucket/generateuri/" + bucketName + "/" + key);
         HttpResponse httpResponse = null;
         try {
             int statusCode;
             httpRequest.addHeader("Accept", MediaType_JSON);
-            httpResponse = m_httpClient.execute(httpRequest);
+            setAcceptEncoding(httpRequest, m_compressionConfiguration.isResponseCompression());
+            httpResponse = execute(Operation.GET_URL, httpRequest);
             statusCode = httpResponse.getStatusLine().getStatusCode();
             if(statusCode >= 200 && statusCode < 400) {
-                ObjectMapper objectMapper = new ObjectMapper().configure(FAIL_ON_UNKNOWN_PROPERTIES, false);
-                InputStream inputStream = httpResponse.getEntity().getContent();
-                GenerateUriDTO.Response responseBody = objectMapper.readValue(inputStream, GenerateUriDTO.Response.class);
-                String uri = responseBody.uri;
-                return new URL(new URL(m_serverUrl), uri);
+                GenerateUriDTO.Response responseBody = m_jsonCodec.readEntity(httpResponse.getEntity(), GenerateUriDTO.Response.class);
+                if(responseBody == null || responseBody.uri == null) {
+                    throw new SdkClientException("Empty generateuri response");
+                }
+                URL url = new URL(new URL(m_serverUrl), responseBody.uri);
+                if(m_urlCache != null) {
+                    m_urlCache.put(cacheKey, url);
+                }
+                return url;
             }
+            throwErrorResponse(statusCode);
+            throw new SdkClientException("Error code: " + statusCode);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new SdkClientException(e);
         } finally {
             HttpClientUtils.closeQuietly(httpResponse);
         }
-        return null;
     }
 
     /**
@@ -159,26 +312,295 @@ public class MS3Client implements AmazonS3 {
      */
     @Override
     public void shutdown() {
+        ExecutorService transferExecutor = m_transferExecutor;
+        if(m_ownsTransferExecutor && transferExecutor != null) {
+            transferExecutor.shutdownNow();
+        }
+        if(m_httpClient instanceof Closeable) {
+            // Also stops the idle connection evictor and shuts the connection pool down
+            try {
+                ((Closeable) m_httpClient).close();
+            } catch (IOException e) {
+                throw new SdkClientException(e);
+            }
+        }
+        if(m_connectionManager != null) {
+            m_connectionManager.shutdown();
+        }
+    }
+
+    public TransferConfiguration getTransferConfiguration() {
+        return m_transferConfiguration;
+    }
+
+    public CompressionConfiguration getCompressionConfiguration() {
+        return m_compressionConfiguration;
+    }
+
+    public ChecksumAlgorithm getChecksumAlgorithm() {
+        return m_checksumAlgorithm;
+    }
+
+    /**
+     * Ask the server for the checksum of the transferred content.
+     *
+     * @return the checksummer of the request body, null if checksums are disabled
+     */
+    private Checksummer requestChecksum(HttpUriRequest httpRequest) {
+        if(m_checksumAlgorithm == ChecksumAlgorithm.NONE) {
+            return null;
+        }
+        httpRequest.setHeader(ChecksumAlgorithm.HEADER_ALGORITHM, m_checksumAlgorithm.name());
+        return Checksummer.create(m_checksumAlgorithm);
+    }
+
+    /**
+     * @return format of the metadata frames sent by putObject: JSON until the server has shown that it knows the preferred format
+     */
+    public MetadataFormat getUploadMetadataFormat() {
+        return m_metadataFormatNegotiated ? m_metadataFormat : MetadataFormat.JSON;
+    }
+
+    /**
+     * @return false once the server refused a compressed request body. Request compression is then off for this client.
+     */
+    public boolean isRequestCompressionEnabled() {
+        return m_compressionConfiguration.isRequestCompression() && !m_requestCompressionRejected;
+    }
+
+    /**
+     * Transfer buffers of this client, with their hit/miss counters.
+     */
+    public BufferPool getBufferPool() {
+        return m_bufferPool;
+    }
+
+    /**
+     * Retry policy of this client, with its retry counters.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return m_retryPolicy;
+    }
+
+    /**
+     * Cache of getObjectMetadata results, with its hit/miss/eviction counters.
+     *
+     * @return null if the cache is disabled (MS3ClientBuilder.metadataCache)
+     */
+    public ExpiringLruCache<String, ObjectMetadata> getMetadataCache() {
+        return m_metadataCache;
+    }
+
+    private static String getMetadataCacheKey(String bucketName, String key) {
+        // Bucket names cannot contain '/'
+        return bucketName + "/" + key;
+    }
+
+    private void invalidateMetadata(String bucketName, String key) {
+        if(m_metadataCache != null) {
+            m_metadataCache.remove(getMetadataCacheKey(bucketName, key));
+        }
+    }
+
+    /**
+     * Drop the cached metadata and content of an object that was written.
+     */
+    private void invalidateContent(String bucketName, String key) {
+        invalidateMetadata(bucketName, key);
+        if(m_diskCache != null) {
+            m_diskCache.remove(bucketName, key);
+        }
+        if(m_memoryCache != null) {
+            m_memoryCache.remove(bucketName, key);
+        }
+    }
+
+    /**
+     * Drop everything cached about a deleted object.
+     */
+    private void invalidateObject(String bucketName, String key) {
+        invalidateContent(bucketName, key);
+        if(m_urlCache != null) {
+            m_urlCache.remove(bucketName + "/" + key);
+        }
+    }
+
+    /**
+     * @return the disk cache of getObject, null if disabled
+     */
+    public DiskObjectCache getDiskCache() {
+        return m_diskCache;
+    }
+
+    /**
+     * @return the in-memory cache of getObject, null if disabled
+     */
+    public OffHeapObjectCache getMemoryCache() {
+        return m_memoryCache;
+    }
+
+    public MS3Metrics getMetrics() {
+        return m_metrics;
+    }
+
+    /**
+     * Snapshot of the connection pool: leased, pending (waiting for a connection), available and max.
+     *
+     * @return null if the client was not built with a pooling connection manager
+     */
+    public PoolStats getConnectionPoolStats() {
+        if(m_connectionManager == null) {
+            return null;
+        }
+        return m_connectionManager.getTotalStats();
+    }
+
+    /**
+     * Execute a request, retrying transient failures according to the retry policy.
+     *
+     * @return the response of the last attempt. A retryable error status is returned as is once retries are exhausted.
+     */
+    private HttpResponse execute(Operation operation, HttpUriRequest httpRequest) throws IOException {
+        if(m_metrics == MS3Metrics.NO_OP) {
+            return executeWithRetry(operation, httpRequest);
+        }
+        m_metrics.requestStarted(operation);
+        long startTime = System.nanoTime();
+        HttpResponse httpResponse;
+        try {
+            httpResponse = executeWithRetry(operation, httpRequest);
+        } catch (IOException | RuntimeException e) {
+            m_metrics.requestFailed(operation, e, System.nanoTime() - startTime);
+            throw e;
+        }
+        long bytesSent = 0;
+        if(httpRequest instanceof HttpEntityEnclosingRequest && ((HttpEntityEnclosingRequest) httpRequest).getEntity() != null) {
+            bytesSent = Math.max(0, ((HttpEntityEnclosingRequest) httpRequest).getEntity().getContentLength());
+        }
+        long bytesReceived = (httpResponse.getEntity() != null) ? Math.max(0, httpResponse.getEntity().getContentLength()) : 0;
+        m_metrics.requestCompleted(operation, httpResponse.getStatusLine().getStatusCode(), System.nanoTime() - startTime, bytesSent, bytesReceived);
+        return httpResponse;
+    }
+
+    private HttpResponse executeWithRetry(Operation operation, HttpUriRequest httpRequest) throws IOException {
+        for(int retries = 0; ; retries++) {
+            HttpResponse httpResponse;
+            try {
+                httpResponse = m_httpClient.execute(httpRequest);
+            } catch (IOException e) {
+                if(!m_retryPolicy.shouldRetry(httpRequest, retries, e)) {
+                    throw e;
+                }
+                m_metrics.requestRetried(operation);
+                pauseBeforeRetry(retries);
+                continue;
+            }
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+            if(!m_retryPolicy.shouldRetry(httpRequest, retries, statusCode)) {
+                if(isHttpStatusSuccess(statusCode) || !m_retryPolicy.isRetryableStatus(statusCode)) {
+                    m_retryPolicy.onRequestCompleted(retries);
+                }
+                return httpResponse;
+            }
+            HttpClientUtils.closeQuietly(httpResponse);
+            m_metrics.requestRetried(operation);
+            pauseBeforeRetry(retries);
+        }
+    }
+
+    private void pauseBeforeRetry(int retriesAttempted) throws InterruptedIOException {
+        long delay = m_retryPolicy.computeDelayMillis(retriesAttempted);
+        if(delay <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interruptedException = new InterruptedIOException("Interrupted while waiting to retry");
+            interruptedException.initCause(e);
+            throw interruptedException;
+        }
     }
 
     private <T> int apiRequestSync(ApiRequestContext<T> context) throws IOException {
         return apiRequestSync(context, true);
     }
 
+    /**
+     * Header-only request: there is no body to read, the connection goes back to the pool at once.
+     *
+     * @return the HTTP status code
+     */
+    private int headRequest(Operation operation, URI uri) throws SdkClientException {
+        HttpHead httpRequest = new HttpHead(uri);
+        HttpResponse httpResponse = null;
+        try {
+            httpResponse = execute(operation, httpRequest);
+            return httpResponse.getStatusLine().getStatusCode();
+        } catch (IOException e) {
+            throw new SdkClientException(e);
+        } finally {
+            HttpClientUtils.closeQuietly(httpResponse);
+        }
+    }
+
+    /**
+     * Without compression, ask for the identity encoding, otherwise let HttpClient offer the encodings it decodes
+     */
+    private static void setAcceptEncoding(HttpUriRequest httpRequest, boolean compressed) {
+        if(!compressed) {
+            httpRequest.setHeader("Accept-Encoding", "identity");
+        }
+    }
+
+    /**
+     * @param contentType content type deciding whether the body is worth compressing, may be null
+     * @return the entity gzip encoded if request compression applies to it, otherwise the entity itself
+     */
+    private HttpEntity compressRequestEntity(HttpEntity entity, String contentType) {
+        return (entity != null) ? compressRequestEntity(entity, contentType, entity.getContentLength()) : null;
+    }
+
+    /**
+     * @param contentLength length of the content if the entity does not know it, -1 if unknown
+     */
+    private HttpEntity compressRequestEntity(HttpEntity entity, String contentType, long contentLength) {
+        if(entity.getContentEncoding() != null || !isRequestCompressionEnabled()
+                || !m_compressionConfiguration.shouldCompressRequest(contentType, contentLength)) {
+            return entity;
+        }
+        return new GzipRequestEntity(entity, m_compressionConfiguration.getCompressionLevel());
+    }
+
     private <T> int apiRequestSync(ApiRequestContext<T> context, boolean closeHttpSession) throws IOException {
         int statusCode = 0;
         try {
-            context.httpRequest.addHeader("Accept", MediaType_JSON);
-            context.httpResponse = m_httpClient.execute(context.httpRequest);
+            context.httpRequest.setHeader("Accept", MediaType_JSON);
+            setAcceptEncoding(context.httpRequest, m_compressionConfiguration.isResponseCompression());
+            HttpEntityEnclosingRequest entityRequest = (context.httpRequest instanceof HttpEntityEnclosingRequest) ? (HttpEntityEnclosingRequest) context.httpRequest : null;
+            if(entityRequest != null && entityRequest.getEntity() != null && entityRequest.getEntity().getContentType() != null) {
+                entityRequest.setEntity(compressRequestEntity(entityRequest.getEntity(), entityRequest.getEntity().getContentType().getValue()));
+            }
+            context.httpResponse = execute(context.operation, context.httpRequest);
             statusCode = context.httpResponse.getStatusLine().getStatusCode();
-            if(statusCode >= 200 && statusCode < 400) {
-                ObjectMapper objectMapper = new ObjectMapper().configure(FAIL_ON_UNKNOWN_PROPERTIES, false);
-                Header encoding = context.httpResponse.getEntity().getContentEncoding();
-                String body = org.apache.commons.io.IOUtils.toString(context.httpResponse.getEntity().getContent(), encoding != null ? encoding.getValue() : "UTF-8");
-                if(body != null && body.length() > 0) {
-                    context.responseBody = objectMapper.readValue(body, context.objectClass);
+            // A 415 to a body with a non JSON metadata frame may reject the frame instead: the caller falls back
+            // to JSON first, so that only a 415 to a JSON framed body stops compression
+            if(statusCode == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE && entityRequest != null && entityRequest.getEntity() instanceof GzipRequestEntity
+                    && !context.httpRequest.containsHeader(MS3Protocol.HEADER_METADATA_FORMAT)) {
+                // The server does not decode request bodies: stop compressing them
+                m_requestCompressionRejected = true;
+                HttpEntity entity = ((GzipRequestEntity) entityRequest.getEntity()).getWrappedEntity();
+                if(entity.isRepeatable()) {
+                    HttpClientUtils.closeQuietly(context.httpResponse);
+                    entityRequest.setEntity(entity);
+                    context.httpResponse = execute(context.operation, context.httpRequest);
+                    statusCode = context.httpResponse.getStatusLine().getStatusCode();
                 }
             }
+            if(statusCode >= 200 && statusCode < 400) {
+                context.responseBody = m_jsonCodec.readEntity(context.httpResponse.getEntity(), context.objectClass);
+            }
         } catch (IOException e) {
             throw e;
         } finally {
@@ -189,41 +611,77 @@ public class MS3Client implements AmazonS3 {
         return statusCode;
     }
 
-    private static boolean isHttpStatusSuccess(int statusCode) {
-        return statusCode >= 200 && statusCode < 400;
+    private URI buildApiUri(String path, String... parameters) throws SdkClientException {
+        return MS3Protocol.buildApiUri(m_serverUrl, path, parameters);
     }
 
-    private ApiRequestContext<ListObjectsDTO.Response> commonListObjects(List<S3ObjectSummary> objectSummaries, String bucket) throws SdkClientException {
-        HttpUriRequest httpRequest = new HttpGet(m_serverUrl + "api/bucket/list/" + bucket);
+    /**
+     * Fetch one page of a bucket listing.
+     *
+     * @param maxKeys null for no limit
+     * @return paging fields (truncated, nextMarker and commonPrefixes) of the page
+     */
+    private ListObjectsDTO.Response commonListObjects(List<S3ObjectSummary> objectSummaries, String bucketName, String prefix, String delimiter, String marker, Integer maxKeys) throws SdkClientException {
+        HttpUriRequest httpRequest = new HttpGet(MS3Protocol.listObjectsUri(m_serverUrl, bucketName, prefix, delimiter, marker, maxKeys));
+        try (ObjectSummaryIterator iterator = openObjectListing(httpRequest, prefix)) {
+            return MS3Protocol.readListingPage(iterator, objectSummaries, prefix, delimiter, marker, maxKeys);
+        }
+    }
+
+    private ObjectSummaryIterator openObjectListing(HttpUriRequest httpRequest, String prefix) throws SdkClientException {
+        HttpResponse httpResponse = null;
+        boolean success = false;
         try {
-            ApiRequestContext<ListObjectsDTO.Response> apiRequestContext = new ApiRequestContext(httpRequest, ListObjectsDTO.Response.class);
-            int statusCode = apiRequestSync(apiRequestContext);
+            int statusCode;
+            httpRequest.addHeader("Accept", MediaType_JSON);
+            setAcceptEncoding(httpRequest, m_compressionConfiguration.isResponseCompression());
+            httpResponse = execute(Operation.LIST_OBJECTS, httpRequest);
+            statusCode = httpResponse.getStatusLine().getStatusCode();
             if(isHttpStatusSuccess(statusCode)) {
-                for (ListObjectsDTO.ObjectSummary item : apiRequestContext.responseBody.list) {
-                    S3ObjectSummary s3ObjectSummary = new S3ObjectSummary();
-                    s3ObjectSummary.setBucketName(item.bucketName);
-                    s3ObjectSummary.setKey(item.key);
-                    s3ObjectSummary.setSize(item.size);
-                    s3ObjectSummary.setLastModified(new Date(item.lastModified));
-                    objectSummaries.add(s3ObjectSummary);
-                }
+                ObjectSummaryIterator iterator = new ObjectSummaryIterator(httpRequest, httpResponse, m_jsonCodec.createParser(httpResponse.getEntity()), prefix);
+                success = true;
+                return iterator;
             }
             throwErrorResponse(statusCode);
-            return apiRequestContext;
+            throw new SdkClientException("Error code: " + statusCode);
         } catch (IOException e) {
             throw new SdkClientException(e);
+        } finally {
+            if(!success)
+                HttpClientUtils.closeQuietly(httpResponse);
         }
     }
 
-    private void throwErrorResponse(int statusCode) {
-        AmazonS3ExceptionBuilder exceptionBuilder = new AmazonS3ExceptionBuilder();
-        if(statusCode == HttpStatus.SC_NOT_FOUND) {
-            exceptionBuilder.setErrorMessage("object not found");
-        }else{
-            return ;
-        }
-        exceptionBuilder.setStatusCode(statusCode);
-        throw exceptionBuilder.build();
+    /**
+     * Iterate over the objects of a bucket while the listing is still being received.
+     *
+     * Memory usage does not depend on the number of objects. The iterator must be closed
+     * if it is not consumed to the end.
+     *
+     * @param bucketName
+     * @param prefix may be null
+     * @return
+     * @throws SdkClientException
+     * @throws AmazonServiceException
+     */
+    public ObjectSummaryIterator iterateObjects(String bucketName, String prefix)
+            throws SdkClientException, AmazonServiceException {
+        HttpUriRequest httpRequest = new HttpGet(buildApiUri("api/bucket/list/" + bucketName,
+                "prefix", (prefix != null && !prefix.isEmpty()) ? prefix : null));
+        return openObjectListing(httpRequest, prefix);
+    }
+
+    /**
+     * Stream version of {@link #iterateObjects(String, String)}.
+     *
+     * Use it in a try-with-resources block so that the connection is released
+     * even if the stream is not fully consumed.
+     */
+    public Stream<S3ObjectSummary> streamObjects(String bucketName, String prefix)
+            throws SdkClientException, AmazonServiceException {
+        ObjectSummaryIterator iterator = iterateObjects(bucketName, prefix);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
     }
 
     /**
@@ -251,16 +709,10 @@ public class MS3Client implements AmazonS3 {
         HttpUriRequest httpRequest = new HttpGet(m_serverUrl + "api/buckets/list");
         HttpResponse httpResponse = null;
         try {
-            ApiRequestContext<BucketsListDTO.Response> apiRequestContext = new ApiRequestContext(httpRequest, BucketsListDTO.Response.class);
+            ApiRequestContext<BucketsListDTO.Response> apiRequestContext = new ApiRequestContext(Operation.LIST_BUCKETS, httpRequest, BucketsListDTO.Response.class);
             int statusCode = apiRequestSync(apiRequestContext);
             if(isHttpStatusSuccess(statusCode)) {
-                List<Bucket> bucketList = new ArrayList();
-                for (BucketsListDTO.BucketSummary bucketSummary : apiRequestContext.responseBody.list) {
-                    Bucket bucket = new Bucket(bucketSummary.bucketName);
-                    bucket.setCreationDate(new Date(bucketSummary.creationTime));
-                    bucketList.add(bucket);
-                }
-                return bucketList;
+                return MS3Protocol.toBucketList(apiRequestContext.responseBody);
             }
             throwErrorResponse(statusCode);
 
@@ -282,7 +734,7 @@ public class MS3Client implements AmazonS3 {
             throws SdkClientException, AmazonServiceException {
         HttpUriRequest httpRequest = new HttpPut(m_serverUrl + "api/buckets/create/" + createBucketRequest.getBucketName());
         try {
-            ApiRequestContext<ResultBase> apiRequestContext = new ApiRequestContext(httpRequest, ResultBase.class);
+            ApiRequestContext<ResultBase> apiRequestContext = new ApiRequestContext(Operation.CREATE_BUCKET, httpRequest, ResultBase.class);
             int statusCode = apiRequestSync(apiRequestContext);
             if(isHttpStatusSuccess(statusCode)) {
                 Bucket bucket = new Bucket(createBucketRequest.getBucketName());
@@ -319,10 +771,14 @@ public class MS3Client implements AmazonS3 {
     @Override
     public ObjectListing listObjects(ListObjectsRequest listObjectsRequest)
             throws SdkClientException, AmazonServiceException {
-        ObjectListing objectListing = new ObjectListing();
-        List<S3ObjectSummary> objectSummaries = objectListing.getObjectSummaries();
-        String bucketName = (listObjectsRequest.getPrefix() != null ? listObjectsRequest.getPrefix() : "") + listObjectsRequest.getBucketName();
-        commonListObjects(objectSummaries, bucketName);
+        ObjectListing objectListing = MS3Protocol.newObjectListing(listObjectsRequest);
+        ListObjectsDTO.Response page = commonListObjects(objectListing.getObjectSummaries(),
+                listObjectsRequest.getBucketName(),
+                listObjectsRequest.getPrefix(),
+                listObjectsRequest.getDelimiter(),
+                listObjectsRequest.getMarker(),
+                listObjectsRequest.getMaxKeys());
+        MS3Protocol.setListingPage(objectListing, page);
         return objectListing;
     }
 
@@ -337,11 +793,26 @@ public class MS3Client implements AmazonS3 {
     public ListObjectsV2Result listObjectsV2(ListObjectsV2Request listObjectsRequest) throws SdkClientException,
             AmazonServiceException {
         ListObjectsV2Result result = new ListObjectsV2Result();
-        List<S3ObjectSummary> objectSummaries = result.getObjectSummaries();
-        String bucketName = (listObjectsRequest.getPrefix() != null ? listObjectsRequest.getPrefix() : "") + listObjectsRequest.getBucketName();
+        // The continuation token is the marker of the next page
+        String marker = (listObjectsRequest.getContinuationToken() != null) ? listObjectsRequest.getContinuationToken() : listObjectsRequest.getStartAfter();
         result.setPrefix(listObjectsRequest.getPrefix());
         result.setBucketName(listObjectsRequest.getBucketName());
-        commonListObjects(objectSummaries, bucketName);
+        result.setDelimiter(listObjectsRequest.getDelimiter());
+        result.setContinuationToken(listObjectsRequest.getContinuationToken());
+        result.setStartAfter(listObjectsRequest.getStartAfter());
+        if(listObjectsRequest.getMaxKeys() != null) {
+            result.setMaxKeys(listObjectsRequest.getMaxKeys());
+        }
+        ListObjectsDTO.Response page = commonListObjects(result.getObjectSummaries(),
+                listObjectsRequest.getBucketName(),
+                listObjectsRequest.getPrefix(),
+                listObjectsRequest.getDelimiter(),
+                marker,
+                listObjectsRequest.getMaxKeys());
+        result.setCommonPrefixes(page.commonPrefixes);
+        result.setTruncated(page.truncated);
+        result.setNextContinuationToken(page.nextMarker);
+        result.setKeyCount(result.getObjectSummaries().size() + page.commonPrefixes.size());
         return result;
     }
 
@@ -355,12 +826,45 @@ public class MS3Client implements AmazonS3 {
     @Override
     public ObjectMetadata getObjectMetadata(GetObjectMetadataRequest getObjectMetadataRequest)
             throws SdkClientException, AmazonServiceException {
+        String cacheKey = null;
+        ObjectMetadata cachedMetadata = null;
+        long cacheGeneration = 0;
+        if(m_metadataCache != null) {
+            // Taken before the request so that a write made while it is in flight is not hidden by the old metadata
+            cacheGeneration = m_metadataCache.getGeneration();
+            cacheKey = getMetadataCacheKey(getObjectMetadataRequest.getBucketName(), getObjectMetadataRequest.getKey());
+            cachedMetadata = m_metadataCache.get(cacheKey);
+            if(cachedMetadata != null) {
+                // Callers may modify the returned metadata
+                return cachedMetadata.clone();
+            }
+            cachedMetadata = m_metadataCache.peek(cacheKey);
+        }
         HttpUriRequest httpRequest = new HttpGet(m_serverUrl + "api/bucket/metadata/" + getObjectMetadataRequest.getBucketName() + "/" + getObjectMetadataRequest.getKey());
+        if(cachedMetadata != null && cachedMetadata.getETag() != null) {
+            // Expired entry: revalidate instead of transferring the metadata again
+            httpRequest.addHeader("If-None-Match", MS3Protocol.quoteETag(cachedMetadata.getETag()));
+        }
         try {
-            ApiRequestContext<kr.jclab.cloud.ms3.common.model.ObjectMetadata> apiRequestContext = new ApiRequestContext(httpRequest, kr.jclab.cloud.ms3.common.model.ObjectMetadata.class);
+            ApiRequestContext<kr.jclab.cloud.ms3.common.model.ObjectMetadata> apiRequestContext = new ApiRequestContext(Operation.GET_OBJECT_METADATA, httpRequest, kr.jclab.cloud.ms3.common.model.ObjectMetadata.class);
             int statusCode = apiRequestSync(apiRequestContext);
+            if(statusCode == HttpStatus.SC_NOT_MODIFIED && cachedMetadata != null) {
+                m_metadataCache.put(cacheKey, cachedMetadata, cacheGeneration);
+                return cachedMetadata.clone();
+            }
             if(isHttpStatusSuccess(statusCode)) {
-                return apiRequestContext.responseBody;
+                ObjectMetadata objectMetadata = apiRequestContext.responseBody;
+                if(objectMetadata != null && objectMetadata.getETag() == null) {
+                    // Validator of the metadata and disk caches
+                    Header etagHeader = apiRequestContext.httpResponse.getFirstHeader("ETag");
+                    if(etagHeader != null) {
+                        objectMetadata.setHeader(Headers.ETAG, ServiceUtils.removeQuotes(etagHeader.getValue()));
+                    }
+                }
+                if(m_metadataCache != null && objectMetadata != null) {
+                    m_metadataCache.put(cacheKey, objectMetadata.clone(), cacheGeneration);
+                }
+                return objectMetadata;
             }
             throwErrorResponse(statusCode);
             throw new SdkClientException("Error code: " + statusCode + " / " + apiRequestContext.responseBody);
@@ -379,32 +883,125 @@ public class MS3Client implements AmazonS3 {
     @Override
     public S3Object getObject(GetObjectRequest getObjectRequest)
             throws SdkClientException, AmazonServiceException {
-        HttpUriRequest httpRequest = new HttpGet(m_serverUrl + "api/bucket/object/" + getObjectRequest.getBucketName() + "/" + getObjectRequest.getKey());
+        if(m_memoryCache != null && getObjectRequest.getRange() == null) {
+            return getObjectThroughMemoryCache(getObjectRequest);
+        }
+        return getObjectThroughDiskCache(getObjectRequest);
+    }
+
+    /**
+     * Serve an object from the memory cache without contacting the server.
+     * Otherwise get it through the disk cache and keep it in memory if it is small enough.
+     */
+    private S3Object getObjectThroughMemoryCache(GetObjectRequest getObjectRequest) {
+        String bucketName = getObjectRequest.getBucketName();
+        String key = getObjectRequest.getKey();
+        OffHeapObjectCache.CachedObject cached = m_memoryCache.get(bucketName, key);
+        if(cached != null) {
+            SDKProgressPublisher.publishProgress(getObjectRequest.getGeneralProgressListener(), ProgressEventType.TRANSFER_STARTED_EVENT);
+            S3Object s3Object = new S3Object();
+            s3Object.setBucketName(bucketName);
+            s3Object.setKey(key);
+            s3Object.setObjectMetadata(cached.objectMetadata);
+            InputStream content = new ByteArrayInputStream(cached.content);
+            TransferMonitor transferMonitor = TransferMonitor.forDownload(getObjectRequest, null);
+            if(transferMonitor != null) {
+                transferMonitor.contentLength(cached.content.length);
+                content = transferMonitor.wrap(content);
+            }
+            s3Object.setObjectContent(new S3ObjectInputStream(content, null));
+            return s3Object;
+        }
+        // Taken before the request so that a write made during the download is not hidden by the old content
+        long generation = m_memoryCache.getGeneration();
+        S3Object s3Object = getObjectThroughDiskCache(getObjectRequest);
+        long contentLength = s3Object.getObjectMetadata().getContentLength();
+        if(contentLength > m_memoryCache.getMaxObjectSize()) {
+            return s3Object;
+        }
+        S3ObjectInputStream content = s3Object.getObjectContent();
+        s3Object.setObjectContent(new S3ObjectInputStream(
+                m_memoryCache.cacheWhileReading(content, bucketName, key, s3Object.getObjectMetadata(), generation),
+                content.getHttpRequest()));
+        return s3Object;
+    }
+
+    /**
+     * Serve an object from the disk cache if its entry matches the metadata on the server.
+     * Otherwise download it and store it in the cache while the caller reads it.
+     *
+     * The metadata comes from getObjectMetadata, so a metadata cache, if configured, bounds how stale it can be.
+     */
+    private S3Object getObjectThroughDiskCache(GetObjectRequest getObjectRequest) {
+        if(m_diskCache == null || getObjectRequest.getRange() != null) {
+            return getObjectFromServer(getObjectRequest);
+        }
+        String bucketName = getObjectRequest.getBucketName();
+        String key = getObjectRequest.getKey();
+        ObjectMetadata serverMetadata = getObjectMetadata(bucketName, key);
+        String validator = DiskObjectCache.getValidator(serverMetadata);
+        if(validator == null || !m_diskCache.isCacheable(serverMetadata.getContentLength())) {
+            return getObjectFromServer(getObjectRequest);
+        }
+        DiskObjectCache.Entry entry = m_diskCache.open(bucketName, key, validator);
+        if(entry != null) {
+            SDKProgressPublisher.publishProgress(getObjectRequest.getGeneralProgressListener(), ProgressEventType.TRANSFER_STARTED_EVENT);
+            S3Object s3Object = new S3Object();
+            s3Object.setBucketName(bucketName);
+            s3Object.setKey(key);
+            s3Object.setObjectMetadata(entry.objectMetadata);
+            InputStream content = entry.content;
+            // Local reads are not limited by the client bandwidth limiter
+            TransferMonitor transferMonitor = TransferMonitor.forDownload(getObjectRequest, null);
+            if(transferMonitor != null) {
+                transferMonitor.contentLength(entry.contentLength);
+                content = transferMonitor.wrap(content);
+            }
+            s3Object.setObjectContent(new S3ObjectInputStream(content, null));
+            return s3Object;
+        }
+        S3Object s3Object = getObjectFromServer(getObjectRequest);
+        String responseETag = s3Object.getObjectMetadata().getETag();
+        if(responseETag != null && !responseETag.equals(serverMetadata.getETag())) {
+            // Replaced since the metadata request: the validator does not describe this content
+            return s3Object;
+        }
+        S3ObjectInputStream content = s3Object.getObjectContent();
+        s3Object.setObjectContent(new S3ObjectInputStream(
+                m_diskCache.cacheWhileReading(content, bucketName, key, validator, s3Object.getObjectMetadata(), serverMetadata.getContentLength()),
+                content.getHttpRequest()));
+        return s3Object;
+    }
+
+    private S3Object getObjectFromServer(GetObjectRequest getObjectRequest)
+            throws SdkClientException, AmazonServiceException {
+        HttpGet httpRequest = new HttpGet(m_serverUrl + "api/bucket/object/" + getObjectRequest.getBucketName() + "/" + getObjectRequest.getKey());
         HttpResponse httpResponse = null;
         boolean success = false;
+        long[] range = getObjectRequest.getRange();
+        ProgressListener progressListener = getObjectRequest.getGeneralProgressListener();
+        SDKProgressPublisher.publishProgress(progressListener, ProgressEventType.TRANSFER_STARTED_EVENT);
         try {
             int statusCode;
             httpRequest.addHeader("Accept", "*/*");
-            httpResponse = m_httpClient.execute(httpRequest);
+            if(range != null) {
+                httpRequest.addHeader("Range", MS3Protocol.rangeHeader(range));
+            }
+            // A range of encoded bytes could not be mapped back to the object
+            setAcceptEncoding(httpRequest, range == null && m_compressionConfiguration.isObjectResponseCompression());
+            MS3Protocol.acceptMetadataFormat(httpRequest, m_metadataFormat);
+            requestChecksum(httpRequest);
+            httpResponse = execute(Operation.GET_OBJECT, httpRequest);
             statusCode = httpResponse.getStatusLine().getStatusCode();
-            success = isHttpStatusSuccess(statusCode);
             if(isHttpStatusSuccess(statusCode)) {
-                S3Object s3Object = new S3Object();
-                ObjectMapper objectMapper = new ObjectMapper().configure(FAIL_ON_UNKNOWN_PROPERTIES, false);
-                int metadataSize = Integer.parseInt(httpResponse.getFirstHeader("MS3-METADATA-SIZE").getValue());
-                int metadataRemain = metadataSize;
-                byte[] metadataBin = new byte[metadataSize];
-                InputStream inputStream = httpResponse.getEntity().getContent();
-                int readlen;
-                while((metadataRemain > 0) && ((readlen = inputStream.read(metadataBin, metadataSize - metadataRemain, metadataRemain)) > 0)) {
-                    metadataRemain -= readlen;
-                }
-                s3Object.setBucketName(getObjectRequest.getBucketName());
-                s3Object.setKey(getObjectRequest.getKey());
-                if(metadataBin.length > 0) {
-                s3Object.setObjectMetadata(objectMapper.readValue(metadataBin, kr.jclab.cloud.ms3.common.model.ObjectMetadata.class));
+                if(!m_metadataFormatNegotiated && m_metadataFormat != MetadataFormat.JSON
+                        && MS3Protocol.getMetadataFormat(httpResponse) == m_metadataFormat) {
+                    m_metadataFormatNegotiated = true;
                 }
-                s3Object.setObjectContent(httpResponse.getEntity().getContent());
+                // The transfer completes when the caller reads the end of the content
+                S3Object s3Object = MS3Protocol.readObjectResponse(m_jsonCodec, m_bufferPool, getObjectRequest, httpResponse, httpRequest,
+                        TransferMonitor.forDownload(getObjectRequest, m_downloadBandwidthLimiter), m_checksumAlgorithm);
+                success = true;
                 return s3Object;
             }
             throwErrorResponse(statusCode);
@@ -412,80 +1009,452 @@ public class MS3Client implements AmazonS3 {
         } catch (IOException e) {
             throw new SdkClientException(e);
         } finally {
-            if(!success)
+            if(!success) {
                 HttpClientUtils.closeQuietly(httpResponse);
+                SDKProgressPublisher.publishProgress(progressListener, ProgressEventType.TRANSFER_FAILED_EVENT);
+            }
         }
     }
 
     @Override
     public PutObjectResult putObject(PutObjectRequest putObjectRequest)
             throws SdkClientException, AmazonServiceException {
+        ProgressListener progressListener = putObjectRequest.getGeneralProgressListener();
+        SDKProgressPublisher.publishProgress(progressListener, ProgressEventType.TRANSFER_STARTED_EVENT);
+        boolean completed = false;
+        try {
+            PutObjectResult result;
+            if(putObjectRequest.getFile() != null && putObjectRequest.getInputStream() == null) {
+                SDKProgressPublisher.publishRequestContentLength(progressListener, putObjectRequest.getFile().length());
+            }else if(putObjectRequest.getMetadata() != null && putObjectRequest.getMetadata().getRawMetadataValue(Headers.CONTENT_LENGTH) != null) {
+                SDKProgressPublisher.publishRequestContentLength(progressListener, putObjectRequest.getMetadata().getContentLength());
+            }
+            result = null;
+            boolean multipartDeclined = false;
+            if(putObjectRequest.getFile() != null && putObjectRequest.getInputStream() == null && !m_multipartUploadUnsupported
+                    && putObjectRequest.getFile().length() >= m_transferConfiguration.getMultipartUploadThreshold()) {
+                result = new MultipartUploader(this, m_transferConfiguration, getTransferExecutor()).upload(putObjectRequest);
+                multipartDeclined = (result == null);
+            }
+            if(result == null) {
+                result = putObjectContent(putObjectRequest, getUploadMetadataFormat());
+                if(multipartDeclined) {
+                    // The bucket exists, so a 404 of the initiate request came from the multipart endpoint itself
+                    m_multipartUploadUnsupported = true;
+                }
+            }
+            completed = true;
+            return result;
+        } finally {
+            SDKProgressPublisher.publishProgress(progressListener, completed ? ProgressEventType.TRANSFER_COMPLETED_EVENT : ProgressEventType.TRANSFER_FAILED_EVENT);
+        }
+    }
+
+    /**
+     * Upload an object in a single request
+     */
+    private PutObjectResult putObjectContent(PutObjectRequest putObjectRequest, MetadataFormat metadataFormat)
+            throws SdkClientException, AmazonServiceException {
         PutObjectResult result = new PutObjectResult();
         HttpPut httpRequest = new HttpPut(m_serverUrl + "api/bucket/object/" + putObjectRequest.getBucketName() + "/" + putObjectRequest.getKey());
         HttpResponse httpResponse = null;
         boolean success = false;
         try {
-            ApiRequestContext<PutObjectDTO.Response> apiRequestContext = new ApiRequestContext(httpRequest, PutObjectDTO.Response.class);
-            ObjectMapper objectMapper = new ObjectMapper().configure(JsonGenerator.Feature.IGNORE_UNKNOWN, true);
+            ApiRequestContext<PutObjectDTO.Response> apiRequestContext = new ApiRequestContext(Operation.PUT_OBJECT, httpRequest, PutObjectDTO.Response.class);
             int statusCode;
-            final byte[] metadataBin = (putObjectRequest.getMetadata() != null) ? objectMapper.writeValueAsBytes(putObjectRequest.getMetadata()) : null;
-            AbstractHttpEntity entity = new AbstractHttpEntity() {
-                public boolean isRepeatable() {
-                    return false;
-                }
-
-                public long getContentLength() {
-                    return -1;
+            final byte[] metadataBin = (putObjectRequest.getMetadata() != null) ? m_jsonCodec.writeMetadata(putObjectRequest.getMetadata(), metadataFormat) : null;
+            AbstractHttpEntity entity;
+            if(putObjectRequest.getInputStream() == null && putObjectRequest.getFile() != null) {
+                // Exact Content-Length and repeatable, so the connection can be retried without the caller
+                File file = putObjectRequest.getFile();
+                if(!file.isFile()) {
+                    throw new SdkClientException("Unable to find file to upload: " + file);
                 }
+                entity = new FileRegionEntity(m_bufferPool, metadataBin, file, 0, file.length());
+            }else{
+                entity = new AbstractHttpEntity() {
+                    public boolean isRepeatable() {
+                        return false;
+                    }
 
-                public boolean isStreaming() {
-                    return true;
-                }
+                    public long getContentLength() {
+                        return -1;
+                    }
 
-                public InputStream getContent() throws IOException {
-                    // Should be implemented as well but is irrelevant for this case
-                    throw new UnsupportedOperationException();
-                }
+                    public boolean isStreaming() {
+                        return true;
+                    }
 
-                @Override
-                public void writeTo(OutputStream outstream) throws IOException {
-                    int readlen;
-                    byte[] buffer = new byte[1048576];
-                    InputStream inputStream = putObjectRequest.getInputStream();
-                    if(metadataBin != null) {
-                        outstream.write(metadataBin);
+                    public InputStream getContent() throws IOException {
+                        // Should be implemented as well but is irrelevant for this case
+                        throw new UnsupportedOperationException();
                     }
-                    try {
-                        if (inputStream == null) {
-                            inputStream = new FileInputStream(putObjectRequest.getFile());
-                        }
-                        while ((readlen = inputStream.read(buffer)) > 0) {
-                            outstream.write(buffer, 0, readlen);
+
+                    @Override
+                    public void writeTo(OutputStream outstream) throws IOException {
+                        int readlen;
+                        byte[] buffer = m_bufferPool.acquire();
+                        InputStream inputStream = putObjectRequest.getInputStream();
+                        if(metadataBin != null) {
+                            outstream.write(metadataBin);
                         }
-                    } finally {
-                        if (inputStream != null) {
-                            try { inputStream.close(); } catch (IOException closee) { }
+                        try {
+                            if (inputStream == null) {
+                                inputStream = new FileInputStream(putObjectRequest.getFile());
+                            }
+                            while ((readlen = inputStream.read(buffer)) > 0) {
+                                outstream.write(buffer, 0, readlen);
+                            }
+                        } finally {
+                            m_bufferPool.release(buffer);
+                            if (inputStream != null) {
+                                try { inputStream.close(); } catch (IOException closee) { }
+                            }
                         }
                     }
-                }
-            };
+                };
+            }
             httpRequest.addHeader("Accept", MediaType_JSON);
-            httpRequest.setEntity(entity);
-            httpRequest.addHeader("MS3-METADATA-SIZE", Integer.toString((metadataBin != null) ? metadataBin.length : 0));
+            long prefixLength = (metadataBin != null) ? metadataBin.length : 0;
+            Checksummer checksummer = requestChecksum(httpRequest);
+            TransferMonitor transferMonitor = TransferMonitor.forUpload(putObjectRequest, m_uploadBandwidthLimiter);
+            ObjectMetadata metadata = putObjectRequest.getMetadata();
+            HttpEntity requestEntity = (checksummer != null) ? checksummer.wrap(entity, prefixLength) : entity;
+            if(transferMonitor != null) {
+                requestEntity = transferMonitor.wrap(requestEntity, prefixLength);
+            }
+            // Content that is already encoded is sent as is
+            if(metadata != null && metadata.getContentEncoding() == null) {
+                long contentLength = (entity.getContentLength() < 0 && metadata.getRawMetadataValue(Headers.CONTENT_LENGTH) != null)
+                        ? metadata.getContentLength() : entity.getContentLength();
+                requestEntity = compressRequestEntity(requestEntity, metadata.getContentType(), contentLength);
+            }
+            httpRequest.setEntity(requestEntity);
+            MS3Protocol.setMetadataFrame(httpRequest, metadataBin, metadataFormat);
             statusCode = apiRequestSync(apiRequestContext);
+            // Taken once per request: it resets an MD5 digest
+            byte[] digest = (checksummer != null && isHttpStatusSuccess(statusCode)) ? checksummer.getDigest() : null;
+            if(digest != null && !isUploadChecksumValid(apiRequestContext.httpResponse, digest) && httpRequest.getEntity().isRepeatable()) {
+                // The server stored corrupt content: overwrite it once
+                statusCode = apiRequestSync(apiRequestContext);
+                digest = isHttpStatusSuccess(statusCode) ? checksummer.getDigest() : null;
+            }
+            if((statusCode == HttpStatus.SC_BAD_REQUEST || statusCode == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE)
+                    && metadataBin != null && metadataFormat != MetadataFormat.JSON) {
+                // E.g. a rolled back server, or an older node behind the same load balancer: send JSON until negotiated again
+                m_metadataFormatNegotiated = false;
+                if(entity.isRepeatable()) {
+                    return putObjectContent(putObjectRequest, MetadataFormat.JSON);
+                }
+            }
+            if(isHttpStatusSuccess(statusCode)) {
+                if(digest != null) {
+                    try {
+                        Checksummer.verify(m_checksumAlgorithm, Checksummer.getResponseDigest(apiRequestContext.httpResponse, m_checksumAlgorithm), digest,
+                                "upload of " + putObjectRequest.getBucketName() + "/" + putObjectRequest.getKey());
+                    } catch (SdkClientException e) {
+                        throw deleteCorruptObject(putObjectRequest.getBucketName(), putObjectRequest.getKey(), e);
+                    }
+                    if(m_checksumAlgorithm == ChecksumAlgorithm.MD5) {
+                        result.setContentMd5(Base64.getEncoder().encodeToString(digest));
+                    }
+                }
+                if(metadataBin != null) {
+                    result.setMetadata(putObjectRequest.getMetadata());
+                }
+                return result;
+            }
+            throwErrorResponse(statusCode);
+            throw new SdkClientException("Error code: " + statusCode);
+        } catch (IOException e) {
+            throw new SdkClientException(e);
+        } finally {
+            // Also on failure: the object may have been written anyway
+            invalidateContent(putObjectRequest.getBucketName(), putObjectRequest.getKey());
+            if(!success)
+        HttpClientUtils.closeQuietly(httpResponse);
+        }
+    }
+
+    private boolean isUploadChecksumValid(HttpResponse httpResponse, byte[] digest) {
+        byte[] expected = Checksummer.getResponseDigest(httpResponse, m_checksumAlgorithm);
+        return (expected == null) || Arrays.equals(expected, digest);
+    }
+
+    /**
+     * Delete an object whose stored content failed the checksum, so that no reader gets it
+     *
+     * @param mismatch the checksum error
+     * @return the error to throw, telling whether the object was deleted
+     */
+    private SdkClientException deleteCorruptObject(String bucketName, String key, SdkClientException mismatch) {
+        try {
+            deleteObject(bucketName, key);
+        } catch (SdkClientException e) {
+            SdkClientException kept = new SdkClientException(mismatch.getMessage() + "; the corrupt object could not be deleted and was kept", mismatch);
+            kept.addSuppressed(e);
+            return kept;
+        }
+        return new SdkClientException(mismatch.getMessage() + "; the corrupt object was deleted", mismatch);
+    }
+
+    private String getMultipartPath(String bucketName, String key) {
+        return "api/bucket/multipart/" + bucketName + "/" + key;
+    }
+
+    /**
+     * Main implementation
+     * @param request
+     * @return
+     * @throws SdkClientException
+     * @throws AmazonServiceException
+     */
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request)
+            throws SdkClientException, AmazonServiceException {
+        return initiateMultipartUpload(request, false);
+    }
+
+    /**
+     * @param fallback true to return null instead of failing when the server does not implement multipart uploads
+     *                 or answers 404, the latter without disabling them,
+     *                 so that the caller can send the object in a single request
+     */
+    InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request, boolean fallback)
+            throws SdkClientException, AmazonServiceException {
+        HttpPost httpRequest = new HttpPost(buildApiUri(getMultipartPath(request.getBucketName(), request.getKey())));
+        try {
+            ApiRequestContext<MultipartUploadDTO.InitiateResponse> apiRequestContext = new ApiRequestContext<>(Operation.INITIATE_MULTIPART_UPLOAD, httpRequest, MultipartUploadDTO.InitiateResponse.class);
+            if(request.getObjectMetadata() != null) {
+                httpRequest.setEntity(new ByteArrayEntity(m_jsonCodec.writeValueAsBytes(request.getObjectMetadata()), ContentType.APPLICATION_JSON));
+            }
+            int statusCode = apiRequestSync(apiRequestContext);
+            if(isHttpStatusSuccess(statusCode) && apiRequestContext.responseBody != null) {
+                InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+                result.setBucketName(request.getBucketName());
+                result.setKey(request.getKey());
+                result.setUploadId(apiRequestContext.responseBody.uploadId);
+                return result;
+            }
+            if(fallback && (statusCode == HttpStatus.SC_METHOD_NOT_ALLOWED || statusCode == HttpStatus.SC_NOT_IMPLEMENTED)) {
+                // Server without the multipart endpoints
+                m_multipartUploadUnsupported = true;
+                return null;
+            }
+            if(fallback && statusCode == HttpStatus.SC_NOT_FOUND) {
+                // Missing bucket or missing endpoint: the single request of this upload tells them apart
+                return null;
+            }
+            throwErrorResponse(statusCode);
+            throw new SdkClientException("Error code: " + statusCode);
+        } catch (IOException e) {
+            throw new SdkClientException(e);
+        }
+    }
+
+    /**
+     * Main implementation
+     * @param request
+     * @return
+     * @throws SdkClientException
+     * @throws AmazonServiceException
+     */
+    @Override
+    public UploadPartResult uploadPart(UploadPartRequest request)
+            throws SdkClientException, AmazonServiceException {
+        HttpPut httpRequest = new HttpPut(buildApiUri(getMultipartPath(request.getBucketName(), request.getKey()),
+                "uploadId", request.getUploadId(),
+                "partNumber", Integer.toString(request.getPartNumber())));
+        InputStream inputStream = request.getInputStream();
+        ProgressListener progressListener = request.getGeneralProgressListener();
+        SDKProgressPublisher.publishProgress(progressListener, ProgressEventType.TRANSFER_PART_STARTED_EVENT);
+        boolean completed = false;
+        try {
+            ApiRequestContext<MultipartUploadDTO.UploadPartResponse> apiRequestContext = new ApiRequestContext<>(Operation.UPLOAD_PART, httpRequest, MultipartUploadDTO.UploadPartResponse.class);
+            HttpEntity entity;
+            if(inputStream != null) {
+                entity = new InputStreamEntity(inputStream, request.getPartSize());
+            }else{
+                entity = new FileRegionEntity(m_bufferPool, request.getFile(), request.getFileOffset(), request.getPartSize());
+            }
+            Checksummer checksummer = requestChecksum(httpRequest);
+            if(checksummer != null) {
+                entity = checksummer.wrap(entity, 0);
+            }
+            TransferMonitor transferMonitor = TransferMonitor.forUpload(request, m_uploadBandwidthLimiter);
+            httpRequest.setEntity((transferMonitor != null) ? transferMonitor.wrap(entity, 0) : entity);
+            int statusCode = apiRequestSync(apiRequestContext);
+            if(isHttpStatusSuccess(statusCode)) {
+                if(checksummer != null) {
+                    Checksummer.verify(m_checksumAlgorithm, Checksummer.getResponseDigest(apiRequestContext.httpResponse, m_checksumAlgorithm), checksummer.getDigest(),
+                            "part " + request.getPartNumber() + " of " + request.getBucketName() + "/" + request.getKey());
+                }
+                completed = true;
+                UploadPartResult result = new UploadPartResult();
+                result.setPartNumber(request.getPartNumber());
+                if(apiRequestContext.responseBody != null && apiRequestContext.responseBody.etag != null) {
+                    result.setETag(apiRequestContext.responseBody.etag);
+                }else if(apiRequestContext.httpResponse.getFirstHeader("ETag") != null) {
+                    result.setETag(apiRequestContext.httpResponse.getFirstHeader("ETag").getValue());
+                }
+                return result;
+            }
+            throwErrorResponse(statusCode);
+            throw new SdkClientException("Error code: " + statusCode);
+        } catch (IOException e) {
+            throw new SdkClientException(e);
+        } finally {
+            SDKProgressPublisher.publishProgress(progressListener, completed ? ProgressEventType.TRANSFER_PART_COMPLETED_EVENT : ProgressEventType.TRANSFER_PART_FAILED_EVENT);
+            if(inputStream != null && request.isLastPart()) {
+                try { inputStream.close(); } catch (IOException closee) { }
+            }
+        }
+    }
+
+    /**
+     * Main implementation
+     * @param request
+     * @return
+     * @throws SdkClientException
+     * @throws AmazonServiceException
+     */
+    @Override
+    public PartListing listParts(ListPartsRequest request)
+            throws SdkClientException, AmazonServiceException {
+        HttpGet httpRequest = new HttpGet(buildApiUri(getMultipartPath(request.getBucketName(), request.getKey()),
+                "uploadId", request.getUploadId()));
+        try {
+            ApiRequestContext<MultipartUploadDTO.ListPartsResponse> apiRequestContext = new ApiRequestContext<>(Operation.LIST_PARTS, httpRequest, MultipartUploadDTO.ListPartsResponse.class);
+            int statusCode = apiRequestSync(apiRequestContext);
+            if(isHttpStatusSuccess(statusCode)) {
+                PartListing partListing = new PartListing();
+                partListing.setBucketName(request.getBucketName());
+                partListing.setKey(request.getKey());
+                partListing.setUploadId(request.getUploadId());
+                if(apiRequestContext.responseBody != null) {
+                    for (MultipartUploadDTO.PartSummary item : apiRequestContext.responseBody.list) {
+                        PartSummary partSummary = new PartSummary();
+                        partSummary.setPartNumber(item.partNumber);
+                        partSummary.setETag(item.etag);
+                        if(item.size != null)
+                            partSummary.setSize(item.size);
+                        if(item.lastModified != null)
+                            partSummary.setLastModified(new Date(item.lastModified));
+                        partListing.getParts().add(partSummary);
+                    }
+                }
+                return partListing;
+            }
+            throwErrorResponse(statusCode);
+            throw new SdkClientException("Error code: " + statusCode);
+        } catch (IOException e) {
+            throw new SdkClientException(e);
+        }
+    }
+
+    /**
+     * Main implementation
+     * @param request
+     * @throws SdkClientException
+     * @throws AmazonServiceException
+     */
+    @Override
+    public void abortMultipartUpload(AbortMultipartUploadRequest request)
+            throws SdkClientException, AmazonServiceException {
+        HttpDelete httpRequest = new HttpDelete(buildApiUri(getMultipartPath(request.getBucketName(), request.getKey()),
+                "uploadId", request.getUploadId()));
+        try {
+            ApiRequestContext<ResultBase> apiRequestContext = new ApiRequestContext<>(Operation.ABORT_MULTIPART_UPLOAD, httpRequest, ResultBase.class);
+            int statusCode = apiRequestSync(apiRequestContext);
+            if(isHttpStatusSuccess(statusCode)) {
+                return ;
+            }
+            throwErrorResponse(statusCode);
+            throw new SdkClientException("Error code: " + statusCode);
+        } catch (IOException e) {
+            throw new SdkClientException(e);
+        }
+    }
+
+    /**
+     * Main implementation
+     * @param request
+     * @return
+     * @throws SdkClientException
+     * @throws AmazonServiceException
+     */
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request)
+            throws SdkClientException, AmazonServiceException {
+        HttpPost httpRequest = new HttpPost(buildApiUri(getMultipartPath(request.getBucketName(), request.getKey()),
+                "uploadId", request.getUploadId()));
+        try {
+            ApiRequestContext<MultipartUploadDTO.CompleteResponse> apiRequestContext = new ApiRequestContext<>(Operation.COMPLETE_MULTIPART_UPLOAD, httpRequest, MultipartUploadDTO.CompleteResponse.class);
+            MultipartUploadDTO.CompleteRequest requestBody = new MultipartUploadDTO.CompleteRequest();
+            for (PartETag partETag : request.getPartETags()) {
+                MultipartUploadDTO.PartSummary part = new MultipartUploadDTO.PartSummary();
+                part.partNumber = partETag.getPartNumber();
+                part.etag = partETag.getETag();
+                requestBody.parts.add(part);
+            }
+            httpRequest.setEntity(new ByteArrayEntity(m_jsonCodec.writeValueAsBytes(requestBody), ContentType.APPLICATION_JSON));
+            int statusCode;
+            try {
+                statusCode = apiRequestSync(apiRequestContext);
+            } finally {
+                invalidateContent(request.getBucketName(), request.getKey());
+            }
+            if(isHttpStatusSuccess(statusCode)) {
+                CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+                result.setBucketName(request.getBucketName());
+                result.setKey(request.getKey());
+                if(apiRequestContext.responseBody != null) {
+                    result.setETag(apiRequestContext.responseBody.etag);
+                }
+                return result;
+            }
+            throwErrorResponse(statusCode);
+            throw new SdkClientException("Error code: " + statusCode);
+        } catch (IOException e) {
+            throw new SdkClientException(e);
+        }
+    }
+
+    /**
+     * Main implementation
+     * @param request
+     * @return
+     * @throws SdkClientException
+     * @throws AmazonServiceException
+     */
+    @Override
+    public MultipartUploadListing listMultipartUploads(ListMultipartUploadsRequest request)
+            throws SdkClientException, AmazonServiceException {
+        HttpGet httpRequest = new HttpGet(buildApiUri("api/bucket/multipart/" + request.getBucketName(),
+                "prefix", request.getPrefix()));
+        try {
+            ApiRequestContext<MultipartUploadDTO.ListUploadsResponse> apiRequestContext = new ApiRequestContext<>(Operation.LIST_MULTIPART_UPLOADS, httpRequest, MultipartUploadDTO.ListUploadsResponse.class);
+            int statusCode = apiRequestSync(apiRequestContext);
             if(isHttpStatusSuccess(statusCode)) {
-                if(metadataBin != null) {
-                    result.setMetadata(putObjectRequest.getMetadata());
+                MultipartUploadListing listing = new MultipartUploadListing();
+                listing.setBucketName(request.getBucketName());
+                listing.setPrefix(request.getPrefix());
+                if(apiRequestContext.responseBody != null) {
+                    for (MultipartUploadDTO.UploadSummary item : apiRequestContext.responseBody.list) {
+                        MultipartUpload multipartUpload = new MultipartUpload();
+                        multipartUpload.setKey(item.key);
+                        multipartUpload.setUploadId(item.uploadId);
+                        if(item.initiated != null)
+                            multipartUpload.setInitiated(new Date(item.initiated));
+                        listing.getMultipartUploads().add(multipartUpload);
+                    }
                 }
-                return result;
+                return listing;
             }
             throwErrorResponse(statusCode);
             throw new SdkClientException("Error code: " + statusCode);
         } catch (IOException e) {
             throw new SdkClientException(e);
-        } finally {
-            if(!success)
-        HttpClientUtils.closeQuietly(httpResponse);
         }
     }
 
@@ -502,6 +1471,36 @@ public class MS3Client implements AmazonS3 {
         return listObjects(new ListObjectsRequest(bucketName, prefix, null, null, null));
     }
 
+    @Override
+    public ObjectListing listNextBatchOfObjects(ObjectListing previousObjectListing)
+            throws SdkClientException, AmazonServiceException {
+        return listNextBatchOfObjects(new ListNextBatchOfObjectsRequest(previousObjectListing));
+    }
+
+    @Override
+    public ObjectListing listNextBatchOfObjects(
+            ListNextBatchOfObjectsRequest listNextBatchOfObjectsRequest)
+            throws SdkClientException, AmazonServiceException {
+        ObjectListing previousObjectListing = listNextBatchOfObjectsRequest.getPreviousObjectListing();
+        if (!previousObjectListing.isTruncated()) {
+            // Same as AmazonS3Client: an empty listing with the previous parameters
+            ObjectListing emptyListing = new ObjectListing();
+            emptyListing.setBucketName(previousObjectListing.getBucketName());
+            emptyListing.setDelimiter(previousObjectListing.getDelimiter());
+            emptyListing.setMarker(previousObjectListing.getNextMarker());
+            emptyListing.setMaxKeys(previousObjectListing.getMaxKeys());
+            emptyListing.setPrefix(previousObjectListing.getPrefix());
+            emptyListing.setTruncated(false);
+            return emptyListing;
+        }
+        ListObjectsRequest listObjectsRequest = listNextBatchOfObjectsRequest.toListObjectsRequest();
+        if (previousObjectListing.getMaxKeys() <= 0) {
+            // The page size was chosen by the server
+            listObjectsRequest.setMaxKeys(null);
+        }
+        return listObjects(listObjectsRequest);
+    }
+
     @Override
     public ListObjectsV2Result listObjectsV2(String bucketName)
             throws SdkClientException, AmazonServiceException {
@@ -560,6 +1559,29 @@ public class MS3Client implements AmazonS3 {
             throws SdkClientException, AmazonServiceException {
         //rejectNull(destinationFile, "The destination file parameter must be specified when downloading an object directly to a file");
 
+        if(getObjectRequest.getRange() == null && m_transferConfiguration.getParallelDownloadThreshold() > 0) {
+            // The ranges are computed from the length and pinned to the ETag: they must not come from a
+            // stale cache entry. The request below stores the fresh metadata in the cache again.
+            invalidateMetadata(getObjectRequest.getBucketName(), getObjectRequest.getKey());
+            ObjectMetadata objectMetadata = getObjectMetadata(getObjectRequest.getBucketName(), getObjectRequest.getKey());
+            // Objects that fit in the disk cache go through it with a single stream
+            if(objectMetadata.getContentLength() >= m_transferConfiguration.getParallelDownloadThreshold()
+                    && (m_diskCache == null || !m_diskCache.isCacheable(objectMetadata.getContentLength()))) {
+                ProgressListener progressListener = getObjectRequest.getGeneralProgressListener();
+                SDKProgressPublisher.publishProgress(progressListener, ProgressEventType.TRANSFER_STARTED_EVENT);
+                SDKProgressPublisher.publishResponseContentLength(progressListener, objectMetadata.getContentLength());
+                boolean completed = false;
+                try {
+                    new ParallelDownloader(this, m_transferConfiguration, getTransferExecutor())
+                            .download(getObjectRequest, objectMetadata, destinationFile);
+                    completed = true;
+                } finally {
+                    SDKProgressPublisher.publishProgress(progressListener, completed ? ProgressEventType.TRANSFER_COMPLETED_EVENT : ProgressEventType.TRANSFER_FAILED_EVENT);
+                }
+                return objectMetadata;
+            }
+        }
+
         S3Object s3Object = ServiceUtils.retryableDownloadS3ObjectToFile(destinationFile, new ServiceUtils.RetryableS3DownloadTask() {
 
             @Override
@@ -569,7 +1591,8 @@ public class MS3Client implements AmazonS3 {
 
             @Override
             public boolean needIntegrityCheck() {
-                return false; // return !skipMd5CheckStrategy.skipClientSideValidationPerRequest(getObjectRequest);
+                // The ETag is not an MD5 of the content: the content stream checks the MS3 checksum instead
+                return false;
             }
 
         }, ServiceUtils.OVERWRITE_MODE);
@@ -642,25 +1665,6 @@ public class MS3Client implements AmazonS3 {
         throw new NotImplementedException();
     }
 
-    /**
-     * Not implemented
-     */
-    @Override
-    public ObjectListing listNextBatchOfObjects(ObjectListing previousObjectListing)
-            throws SdkClientException, AmazonServiceException {
-        throw new NotImplementedException();
-    }
-
-    /**
-     * Not implemented
-     */
-    @Override
-    public ObjectListing listNextBatchOfObjects(
-            ListNextBatchOfObjectsRequest listNextBatchOfObjectsRequest)
-            throws SdkClientException, AmazonServiceException {
-        throw new NotImplementedException();
-    }
-
     /**
      * Not implemented
      */
@@ -726,32 +1730,54 @@ public class MS3Client implements AmazonS3 {
         throw new NotImplementedException();
     }
 
-    /**
-     * Not implemented
-     */
     @Override
     public @Deprecated
     boolean doesBucketExist(String bucketName)
             throws SdkClientException, AmazonServiceException {
-        throw new NotImplementedException();
+        return doesBucketExistV2(bucketName);
     }
 
     /**
-     * Not implemented
+     * Main implementation
+     * @param bucketName
+     * @return true if the bucket exists, even if it is not accessible
+     * @throws SdkClientException
+     * @throws AmazonServiceException
      */
     @Override
     public boolean doesBucketExistV2(String bucketName)
             throws SdkClientException, AmazonServiceException {
-        throw new NotImplementedException();
+        int statusCode = headRequest(Operation.HEAD_BUCKET, getHeadBucketUri(bucketName));
+        if(isHttpStatusSuccess(statusCode) || statusCode == HttpStatus.SC_FORBIDDEN) {
+            return true;
+        }
+        if(statusCode == HttpStatus.SC_NOT_FOUND) {
+            return false;
+        }
+        throw new SdkClientException("Error code: " + statusCode);
     }
 
     /**
-     * Not implemented
+     * Main implementation
+     * @param headBucketRequest
+     * @return
+     * @throws SdkClientException
+     * @throws AmazonServiceException
      */
     @Override
     public HeadBucketResult headBucket(HeadBucketRequest headBucketRequest)
             throws SdkClientException, AmazonServiceException {
-        throw new NotImplementedException();
+        int statusCode = headRequest(Operation.HEAD_BUCKET, getHeadBucketUri(headBucketRequest.getBucketName()));
+        if(isHttpStatusSuccess(statusCode)) {
+            return new HeadBucketResult();
+        }
+        throwErrorResponse(statusCode);
+        throw new SdkClientException("Error code: " + statusCode);
+    }
+
+    private URI getHeadBucketUri(String bucketName) {
+        // max-keys=0 spares the listing on servers that answer HEAD with their GET handler
+        return MS3Protocol.listObjectsUri(m_serverUrl, bucketName, null, null, null, 0);
     }
 
     /**
@@ -951,32 +1977,104 @@ public class MS3Client implements AmazonS3 {
         throw new NotImplementedException();
     }
 
-    /**
-     * Not implemented
-     */
     @Override
     public CopyObjectResult copyObject(String sourceBucketName, String sourceKey,
                                        String destinationBucketName, String destinationKey) throws SdkClientException,
             AmazonServiceException {
-        throw new NotImplementedException();
+        return copyObject(new CopyObjectRequest(sourceBucketName, sourceKey, destinationBucketName, destinationKey));
     }
 
     /**
-     * Not implemented
+     * Main implementation
+     *
+     * The copy is made by the server. The metadata of the source is kept, unless
+     * newObjectMetadata is set on the request. Sources of at least
+     * TransferConfiguration.getMultipartCopyThreshold() bytes are copied as concurrent copyPart requests.
+     *
+     * @param copyObjectRequest
+     * @return
+     * @throws SdkClientException
+     * @throws AmazonServiceException
      */
     @Override
     public CopyObjectResult copyObject(CopyObjectRequest copyObjectRequest)
             throws SdkClientException, AmazonServiceException {
-        throw new NotImplementedException();
+        if(m_transferConfiguration.getMultipartCopyThreshold() > 0) {
+            // The parts are computed from the length: it must not come from a stale cache entry
+            invalidateMetadata(copyObjectRequest.getSourceBucketName(), copyObjectRequest.getSourceKey());
+            ObjectMetadata sourceMetadata = getObjectMetadata(copyObjectRequest.getSourceBucketName(), copyObjectRequest.getSourceKey());
+            if(sourceMetadata.getContentLength() >= m_transferConfiguration.getMultipartCopyThreshold()) {
+                return new MultipartUploader(this, m_transferConfiguration, getTransferExecutor()).copy(copyObjectRequest, sourceMetadata);
+            }
+        }
+        HttpPut httpRequest = new HttpPut(m_serverUrl + "api/bucket/copy/" + copyObjectRequest.getDestinationBucketName() + "/" + copyObjectRequest.getDestinationKey());
+        try {
+            ApiRequestContext<CopyObjectDTO.Response> apiRequestContext = new ApiRequestContext<>(Operation.COPY_OBJECT, httpRequest, CopyObjectDTO.Response.class);
+            httpRequest.addHeader(MS3Protocol.HEADER_COPY_SOURCE, MS3Protocol.copySourceHeader(copyObjectRequest.getSourceBucketName(), copyObjectRequest.getSourceKey()));
+            if(copyObjectRequest.getNewObjectMetadata() != null) {
+                httpRequest.addHeader(MS3Protocol.HEADER_METADATA_DIRECTIVE, "REPLACE");
+                httpRequest.setEntity(new ByteArrayEntity(m_jsonCodec.writeValueAsBytes(copyObjectRequest.getNewObjectMetadata()), ContentType.APPLICATION_JSON));
+            }else{
+                httpRequest.addHeader(MS3Protocol.HEADER_METADATA_DIRECTIVE, "COPY");
+            }
+            int statusCode;
+            try {
+                statusCode = apiRequestSync(apiRequestContext);
+            } finally {
+                invalidateContent(copyObjectRequest.getDestinationBucketName(), copyObjectRequest.getDestinationKey());
+            }
+            if(isHttpStatusSuccess(statusCode)) {
+                CopyObjectResult result = new CopyObjectResult();
+                if(apiRequestContext.responseBody != null) {
+                    result.setETag(apiRequestContext.responseBody.etag);
+                    if(apiRequestContext.responseBody.lastModified != null) {
+                        result.setLastModifiedDate(new Date(apiRequestContext.responseBody.lastModified));
+                    }
+                }
+                return result;
+            }
+            throwErrorResponse(statusCode);
+            throw new SdkClientException("Error code: " + statusCode);
+        } catch (IOException e) {
+            throw new SdkClientException(e);
+        }
     }
 
     /**
-     * Not implemented
+     * Main implementation
+     * @param copyPartRequest
+     * @return
+     * @throws SdkClientException
+     * @throws AmazonServiceException
      */
     @Override
     public CopyPartResult copyPart(CopyPartRequest copyPartRequest) throws SdkClientException,
             AmazonServiceException {
-        throw new NotImplementedException();
+        HttpPut httpRequest = new HttpPut(buildApiUri(getMultipartPath(copyPartRequest.getDestinationBucketName(), copyPartRequest.getDestinationKey()),
+                "uploadId", copyPartRequest.getUploadId(),
+                "partNumber", Integer.toString(copyPartRequest.getPartNumber())));
+        try {
+            ApiRequestContext<MultipartUploadDTO.UploadPartResponse> apiRequestContext = new ApiRequestContext<>(Operation.COPY_PART, httpRequest, MultipartUploadDTO.UploadPartResponse.class);
+            httpRequest.addHeader(MS3Protocol.HEADER_COPY_SOURCE, MS3Protocol.copySourceHeader(copyPartRequest.getSourceBucketName(), copyPartRequest.getSourceKey()));
+            if(copyPartRequest.getFirstByte() != null && copyPartRequest.getLastByte() != null) {
+                httpRequest.addHeader(MS3Protocol.HEADER_COPY_SOURCE_RANGE, "bytes=" + copyPartRequest.getFirstByte() + "-" + copyPartRequest.getLastByte());
+            }
+            int statusCode = apiRequestSync(apiRequestContext);
+            if(isHttpStatusSuccess(statusCode)) {
+                CopyPartResult result = new CopyPartResult();
+                result.setPartNumber(copyPartRequest.getPartNumber());
+                if(apiRequestContext.responseBody != null && apiRequestContext.responseBody.etag != null) {
+                    result.setETag(apiRequestContext.responseBody.etag);
+                }else if(apiRequestContext.httpResponse.getFirstHeader("ETag") != null) {
+                    result.setETag(apiRequestContext.httpResponse.getFirstHeader("ETag").getValue());
+                }
+                return result;
+            }
+            throwErrorResponse(statusCode);
+            throw new SdkClientException("Error code: " + statusCode);
+        } catch (IOException e) {
+            throw new SdkClientException(e);
+        }
     }
 
     @Override
@@ -986,21 +2084,156 @@ public class MS3Client implements AmazonS3 {
     }
 
     /**
-     * Not implemented
+     * Main implementation
+     * @param deleteObjectRequest
+     * @throws SdkClientException
+     * @throws AmazonServiceException
      */
     @Override
     public void deleteObject(DeleteObjectRequest deleteObjectRequest)
             throws SdkClientException, AmazonServiceException {
-        throw new NotImplementedException();
+        HttpDelete httpRequest = new HttpDelete(m_serverUrl + "api/bucket/object/" + deleteObjectRequest.getBucketName() + "/" + deleteObjectRequest.getKey());
+        try {
+            ApiRequestContext<ResultBase> apiRequestContext = new ApiRequestContext<>(Operation.DELETE_OBJECT, httpRequest, ResultBase.class);
+            int statusCode;
+            try {
+                statusCode = apiRequestSync(apiRequestContext);
+            } finally {
+                invalidateObject(deleteObjectRequest.getBucketName(), deleteObjectRequest.getKey());
+            }
+            // Like S3, deleting a missing object is not an error
+            if(isHttpStatusSuccess(statusCode) || statusCode == HttpStatus.SC_NOT_FOUND) {
+                return;
+            }
+            throwErrorResponse(statusCode);
+            throw new SdkClientException("Error code: " + statusCode);
+        } catch (IOException e) {
+            throw new SdkClientException(e);
+        }
     }
 
     /**
-     * Not implemented
+     * Main implementation
+     *
+     * The keys are sent in batches of TransferConfiguration.getDeleteBatchSize() keys,
+     * up to TransferConfiguration.getConcurrency() batches at the same time.
+     * A failed batch does not stop the others: its keys are reported as errors along with the deleted keys.
+     *
+     * @param deleteObjectsRequest
+     * @return
+     * @throws SdkClientException if every batch failed
+     * @throws AmazonServiceException
+     * @throws MultiObjectDeleteException if some keys could not be deleted
      */
     @Override
     public DeleteObjectsResult deleteObjects(DeleteObjectsRequest deleteObjectsRequest) throws SdkClientException,
             AmazonServiceException {
-        throw new NotImplementedException();
+        final String bucketName = deleteObjectsRequest.getBucketName();
+        final List<DeleteObjectsRequest.KeyVersion> keys = deleteObjectsRequest.getKeys();
+        final boolean quiet = deleteObjectsRequest.getQuiet();
+        final int batchSize = Math.max(1, m_transferConfiguration.getDeleteBatchSize());
+        final int batchCount = (keys.size() + batchSize - 1) / batchSize;
+        final DeleteObjectsDTO.Response[] responses = new DeleteObjectsDTO.Response[batchCount];
+        final SdkClientException[] failures = new SdkClientException[batchCount];
+        if(batchCount == 1) {
+            responses[0] = deleteObjectsBatch(bucketName, keys, quiet);
+        }else if(batchCount > 1) {
+            ParallelTasks.run(getTransferExecutor(), m_transferConfiguration.getConcurrency(), batchCount, index -> {
+                int from = index * batchSize;
+                try {
+                    responses[index] = deleteObjectsBatch(bucketName, keys.subList(from, Math.min(from + batchSize, keys.size())), quiet);
+                } catch (SdkClientException e) {
+                    failures[index] = e;
+                }
+            });
+        }
+
+        List<DeleteObjectsResult.DeletedObject> deletedObjects = new ArrayList<>();
+        List<MultiObjectDeleteException.DeleteError> errors = new ArrayList<>();
+        int failedBatchCount = 0;
+        for(int index = 0; index < batchCount; index++) {
+            if(failures[index] != null) {
+                SdkClientException failure = failures[index];
+                if(++failedBatchCount == batchCount) {
+                    // Nothing was done: report the failure itself
+                    throw failure;
+                }
+                String code = "InternalError";
+                if(failure instanceof AmazonServiceException) {
+                    AmazonServiceException serviceException = (AmazonServiceException) failure;
+                    code = (serviceException.getErrorCode() != null) ? serviceException.getErrorCode() : Integer.toString(serviceException.getStatusCode());
+                }
+                int from = index * batchSize;
+                for(DeleteObjectsRequest.KeyVersion keyVersion : keys.subList(from, Math.min(from + batchSize, keys.size()))) {
+                    MultiObjectDeleteException.DeleteError error = new MultiObjectDeleteException.DeleteError();
+                    error.setKey(keyVersion.getKey());
+                    error.setVersionId(keyVersion.getVersion());
+                    error.setCode(code);
+                    error.setMessage(failure.getMessage());
+                    errors.add(error);
+                }
+                continue;
+            }
+            DeleteObjectsDTO.Response response = responses[index];
+            if(response.deleted != null) {
+                for(DeleteObjectsDTO.KeyEntry entry : response.deleted) {
+                    DeleteObjectsResult.DeletedObject deletedObject = new DeleteObjectsResult.DeletedObject();
+                    deletedObject.setKey(entry.key);
+                    deletedObject.setVersionId(entry.versionId);
+                    deletedObjects.add(deletedObject);
+                }
+            }
+            if(response.errors == null) {
+                continue;
+            }
+            for(DeleteObjectsDTO.ErrorEntry entry : response.errors) {
+                MultiObjectDeleteException.DeleteError error = new MultiObjectDeleteException.DeleteError();
+                error.setKey(entry.key);
+                error.setVersionId(entry.versionId);
+                error.setCode(entry.code);
+                error.setMessage(entry.message);
+                errors.add(error);
+            }
+        }
+        if(!errors.isEmpty()) {
+            MultiObjectDeleteException exception = new MultiObjectDeleteException(errors, deletedObjects);
+            exception.setStatusCode(200);
+            exception.setErrorCode("MultiObjectDeleteException");
+            exception.setErrorMessage(errors.size() + " of " + keys.size() + " objects could not be deleted");
+            throw exception;
+        }
+        return new DeleteObjectsResult(deletedObjects);
+    }
+
+    private DeleteObjectsDTO.Response deleteObjectsBatch(String bucketName, List<DeleteObjectsRequest.KeyVersion> keys, boolean quiet) throws SdkClientException, AmazonServiceException {
+        HttpPost httpRequest = new HttpPost(buildApiUri("api/bucket/delete/" + bucketName));
+        DeleteObjectsDTO.Request requestBody = new DeleteObjectsDTO.Request();
+        requestBody.quiet = quiet;
+        for(DeleteObjectsRequest.KeyVersion keyVersion : keys) {
+            DeleteObjectsDTO.KeyEntry entry = new DeleteObjectsDTO.KeyEntry();
+            entry.key = keyVersion.getKey();
+            entry.versionId = keyVersion.getVersion();
+            requestBody.keys.add(entry);
+        }
+        try {
+            ApiRequestContext<DeleteObjectsDTO.Response> apiRequestContext = new ApiRequestContext<>(Operation.DELETE_OBJECTS, httpRequest, DeleteObjectsDTO.Response.class);
+            httpRequest.setEntity(new ByteArrayEntity(m_jsonCodec.writeValueAsBytes(requestBody), ContentType.APPLICATION_JSON));
+            int statusCode;
+            try {
+                statusCode = apiRequestSync(apiRequestContext);
+            } finally {
+                for(DeleteObjectsRequest.KeyVersion keyVersion : keys) {
+                    invalidateObject(bucketName, keyVersion.getKey());
+                }
+            }
+            if(isHttpStatusSuccess(statusCode)) {
+                return (apiRequestContext.responseBody != null) ? apiRequestContext.responseBody : new DeleteObjectsDTO.Response();
+            }
+            throwErrorResponse(statusCode);
+            throw new SdkClientException("Error code: " + statusCode);
+        } catch (IOException e) {
+            throw new SdkClientException(e);
+        }
     }
 
     /**
@@ -1368,85 +2601,56 @@ public class MS3Client implements AmazonS3 {
         throw new NotImplementedException();
     }
 
-    /**
-     * Not implemented
-     */
     @Override
     public URL generatePresignedUrl(String bucketName, String key, Date expiration)
             throws SdkClientException {
-        throw new NotImplementedException();
+        return generatePresignedUrl(bucketName, key, expiration, HttpMethod.GET);
     }
 
-    /**
-     * Not implemented
-     */
     @Override
     public URL generatePresignedUrl(String bucketName, String key, Date expiration, HttpMethod method)
             throws SdkClientException {
-        throw new NotImplementedException();
+        return generatePresignedUrl(new GeneratePresignedUrlRequest(bucketName, key, method)
+                .withExpiration(expiration));
     }
 
     /**
-     * Not implemented
+     * Main implementation
+     *
+     * The URL is signed locally with the key of MS3ClientBuilder.presignKey, see PresignedUrlSigner.
+     * Only the method, the bucket, the key and the expiration are taken from the request.
+     *
+     * @param generatePresignedUrlRequest
+     * @return
+     * @throws SdkClientException
      */
     @Override
     public URL generatePresignedUrl(GeneratePresignedUrlRequest generatePresignedUrlRequest)
             throws SdkClientException {
-        throw new NotImplementedException();
-    }
-
-    /**
-     * Not implemented
-     */
-    @Override
-    public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request)
-            throws SdkClientException, AmazonServiceException {
-        throw new NotImplementedException();
-    }
-
-    /**
-     * Not implemented
-     */
-    @Override
-    public UploadPartResult uploadPart(UploadPartRequest request)
-            throws SdkClientException, AmazonServiceException {
-        throw new NotImplementedException();
-    }
-
-    /**
-     * Not implemented
-     */
-    @Override
-    public PartListing listParts(ListPartsRequest request)
-            throws SdkClientException, AmazonServiceException {
-        throw new NotImplementedException();
-    }
-
-    /**
-     * Not implemented
-     */
-    @Override
-    public void abortMultipartUpload(AbortMultipartUploadRequest request)
-            throws SdkClientException, AmazonServiceException {
-        throw new NotImplementedException();
-    }
-
-    /**
-     * Not implemented
-     */
-    @Override
-    public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request)
-            throws SdkClientException, AmazonServiceException {
-        throw new NotImplementedException();
-    }
-
-    /**
-     * Not implemented
-     */
-    @Override
-    public MultipartUploadListing listMultipartUploads(ListMultipartUploadsRequest request)
-            throws SdkClientException, AmazonServiceException {
-        throw new NotImplementedException();
+        if(m_presignedUrlSigner == null) {
+            throw new SdkClientException("No presign key configured (MS3ClientBuilder.presignKey)");
+        }
+        HttpMethod method = (generatePresignedUrlRequest.getMethod() != null) ? generatePresignedUrlRequest.getMethod() : HttpMethod.GET;
+        Date expiration = generatePresignedUrlRequest.getExpiration();
+        long expires = (expiration != null)
+                ? expiration.getTime() / 1000
+                : System.currentTimeMillis() / 1000 + DEFAULT_PRESIGNED_URL_EXPIRATION_SECONDS;
+        try {
+            URL objectUrl = new URL(m_serverUrl + "api/bucket/object/"
+                    + SdkHttpUtils.urlEncode(generatePresignedUrlRequest.getBucketName(), false) + "/"
+                    + SdkHttpUtils.urlEncode(generatePresignedUrlRequest.getKey(), true));
+            String signature = m_presignedUrlSigner.sign(method.name(), objectUrl.getPath(), expires);
+            StringBuilder url = new StringBuilder(objectUrl.toString())
+                    .append('?').append(PresignedUrlSigner.PARAM_METHOD).append('=').append(method.name())
+                    .append('&').append(PresignedUrlSigner.PARAM_EXPIRES).append('=').append(expires);
+            if(m_presignedUrlSigner.getKeyId() != null) {
+                url.append('&').append(PresignedUrlSigner.PARAM_KEY_ID).append('=').append(SdkHttpUtils.urlEncode(m_presignedUrlSigner.getKeyId(), false));
+            }
+            url.append('&').append(PresignedUrlSigner.PARAM_SIGNATURE).append('=').append(signature);
+            return new URL(url.toString());
+        } catch (MalformedURLException e) {
+            throw new SdkClientException(e);
+        }
     }
 
     /**
@@ -1572,12 +2776,27 @@ public class MS3Client implements AmazonS3 {
     }
 
     /**
-     * Not implemented
+     * Main implementation
+     * @param bucketName
+     * @param objectName
+     * @return
+     * @throws AmazonServiceException
+     * @throws SdkClientException
      */
     @Override
     public boolean doesObjectExist(String bucketName, String objectName)
             throws AmazonServiceException, SdkClientException {
-        throw new NotImplementedException();
+        if(m_metadataCache != null && m_metadataCache.get(getMetadataCacheKey(bucketName, objectName)) != null) {
+            return true;
+        }
+        int statusCode = headRequest(Operation.HEAD_OBJECT, URI.create(m_serverUrl + "api/bucket/metadata/" + bucketName + "/" + objectName));
+        if(isHttpStatusSuccess(statusCode)) {
+            return true;
+        }
+        if(statusCode == HttpStatus.SC_NOT_FOUND) {
+            return false;
+        }
+        throw new SdkClientException("Error code: " + statusCode);
     }
 
     /**
@@ -15,16 +15,96 @@
  */
 package kr.jclab.cloud.ms3.client;
 
-import org.apache.http.client.HttpClient;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kr.jclab.cloud.ms3.client.metrics.MS3Metrics;
+import kr.jclab.cloud.ms3.common.PresignedUrlSigner;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class MS3ClientBuilder {
+    public static final int DEFAULT_MAX_CONNECTIONS = 50;
+    public static final int DEFAULT_CONNECTION_TIMEOUT = 10 * 1000;
+    public static final int DEFAULT_SOCKET_TIMEOUT = 50 * 1000;
+    public static final long DEFAULT_CONNECTION_TTL = -1;
+    public static final long DEFAULT_CONNECTION_MAX_IDLE_MILLIS = 60 * 1000;
+    public static final long DEFAULT_METADATA_CACHE_TTL = 5 * 1000;
+    public static final long DEFAULT_URL_CACHE_TTL = 30 * 1000;
+
     private static String m_defaultServerUrl;
 
     private String serverUrl = m_defaultServerUrl;
 
     private HttpClientBuilder m_httpClientBuilder = HttpClientBuilder.create();
 
+    private HttpAsyncClientBuilder m_httpAsyncClientBuilder = null;
+
+    private MS3JsonCodec m_jsonCodec = null;
+
+    private TransferConfiguration m_transferConfiguration = new TransferConfiguration();
+
+    private CompressionConfiguration m_compressionConfiguration = new CompressionConfiguration();
+
+    private MetadataFormat m_metadataFormat = MetadataFormat.CBOR;
+
+    private ChecksumAlgorithm m_checksumAlgorithm = ChecksumAlgorithm.CRC32C;
+
+    private ExecutorService m_transferExecutor = null;
+
+    private BufferPool m_bufferPool = null;
+
+    private int m_transferBufferSize = BufferPool.DEFAULT_BUFFER_SIZE;
+
+    private int m_maxPooledBuffers = BufferPool.DEFAULT_MAX_BUFFERS;
+
+    private RetryPolicy m_retryPolicy = null;
+
+    private MS3Metrics m_metrics = MS3Metrics.NO_OP;
+
+    private BandwidthLimiter m_uploadBandwidthLimiter = null;
+    private BandwidthLimiter m_downloadBandwidthLimiter = null;
+
+    // 0 : disabled
+    private int m_metadataCacheSize = 0;
+
+    private long m_metadataCacheTTL = DEFAULT_METADATA_CACHE_TTL;
+
+    // 0 : disabled
+    private int m_urlCacheSize = 0;
+
+    private long m_urlCacheTTL = DEFAULT_URL_CACHE_TTL;
+
+    private PresignedUrlSigner m_presignedUrlSigner = null;
+
+    private DiskObjectCache m_diskCache = null;
+
+    private OffHeapObjectCache m_memoryCache = null;
+
+    private int m_maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    // <= 0 : same as maxConnections (every request goes to the one server)
+    private int m_maxConnectionsPerRoute = 0;
+
+    private long m_connectionTTL = DEFAULT_CONNECTION_TTL;
+
+    private long m_connectionMaxIdleMillis = DEFAULT_CONNECTION_MAX_IDLE_MILLIS;
+
+    private ConnectionKeepAliveStrategy m_keepAliveStrategy = null;
+
+    private int m_connectionTimeout = DEFAULT_CONNECTION_TIMEOUT;
+
+    private int m_socketTimeout = DEFAULT_SOCKET_TIMEOUT;
+
+    private int m_connectionRequestTimeout = -1;
+
     public static void init(String defaultServerUrl) {
         m_defaultServerUrl = defaultServerUrl;
     }
@@ -49,15 +129,426 @@ public class MS3ClientBuilder {
         return this;
     }
 
+    public HttpAsyncClientBuilder getHttpAsyncClientBuilder() {
+        if(m_httpAsyncClientBuilder == null) {
+            m_httpAsyncClientBuilder = HttpAsyncClientBuilder.create();
+        }
+        return m_httpAsyncClientBuilder;
+    }
+
+    public MS3ClientBuilder httpAsyncClientBuilder(HttpAsyncClientBuilder httpAsyncClientBuilder) {
+        m_httpAsyncClientBuilder = httpAsyncClientBuilder;
+        return this;
+    }
+
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
     public MS3ClientBuilder serverUrl(String serverUrl) {
         this.serverUrl = serverUrl;
         return this;
     }
 
+    public MS3JsonCodec getJsonCodec() {
+        if(m_jsonCodec == null) {
+            m_jsonCodec = new MS3JsonCodec();
+        }
+        return m_jsonCodec;
+    }
+
+    /**
+     * Share one codec between several clients, or use a custom configured ObjectMapper.
+     */
+    public MS3ClientBuilder jsonCodec(MS3JsonCodec jsonCodec) {
+        m_jsonCodec = jsonCodec;
+        return this;
+    }
+
+    public MS3ClientBuilder objectMapper(ObjectMapper objectMapper) {
+        m_jsonCodec = new MS3JsonCodec(objectMapper);
+        return this;
+    }
+
+    public TransferConfiguration getTransferConfiguration() {
+        return m_transferConfiguration;
+    }
+
+    public MS3ClientBuilder transferConfiguration(TransferConfiguration transferConfiguration) {
+        m_transferConfiguration = transferConfiguration;
+        return this;
+    }
+
+    public CompressionConfiguration getCompressionConfiguration() {
+        return m_compressionConfiguration;
+    }
+
+    /**
+     * Content-Encoding of the requests and responses of build() clients. MS3AsyncClient does not compress.
+     */
+    public MS3ClientBuilder compressionConfiguration(CompressionConfiguration compressionConfiguration) {
+        m_compressionConfiguration = (compressionConfiguration != null) ? compressionConfiguration : new CompressionConfiguration();
+        return this;
+    }
+
+    public MetadataFormat getMetadataFormat() {
+        return m_metadataFormat;
+    }
+
+    /**
+     * Preferred encoding of the object metadata frames. getObject offers it to the server, and putObject
+     * uses it once the server has answered with it. MetadataFormat.JSON keeps the original protocol.
+     */
+    public MS3ClientBuilder metadataFormat(MetadataFormat metadataFormat) {
+        m_metadataFormat = (metadataFormat != null) ? metadataFormat : MetadataFormat.JSON;
+        return this;
+    }
+
+    public ChecksumAlgorithm getChecksumAlgorithm() {
+        return m_checksumAlgorithm;
+    }
+
+    /**
+     * Checksum computed on the object content sent and received by build() clients, and compared with the one
+     * reported by the server. ChecksumAlgorithm.NONE turns the checks off.
+     * An object stored with a mismatching checksum by a single request upload is sent once more if the content
+     * can be read again (file uploads), otherwise deleted before the error is thrown. A mismatching part of a
+     * multipart upload is sent again.
+     */
+    public MS3ClientBuilder checksumAlgorithm(ChecksumAlgorithm checksumAlgorithm) {
+        m_checksumAlgorithm = (checksumAlgorithm != null) ? checksumAlgorithm : ChecksumAlgorithm.NONE;
+        return this;
+    }
+
+    public DiskObjectCache getDiskCache() {
+        return m_diskCache;
+    }
+
+    /**
+     * Read-through cache of getObject on the local disk, may be shared by several clients.
+     * Every cached read still makes a metadata request to check that the object did not change,
+     * unless a metadata cache is configured as well.
+     */
+    public MS3ClientBuilder diskCache(DiskObjectCache diskCache) {
+        m_diskCache = diskCache;
+        return this;
+    }
+
+    public OffHeapObjectCache getMemoryCache() {
+        return m_memoryCache;
+    }
+
+    /**
+     * Cache of small objects in memory, checked by getObject before the disk cache and the server.
+     * Its entries are not revalidated: a change made by another client is only seen once they expire.
+     */
+    public MS3ClientBuilder memoryCache(OffHeapObjectCache memoryCache) {
+        m_memoryCache = memoryCache;
+        return this;
+    }
+
+    /**
+     * Executor running the parts of parallel transfers.
+     *
+     * It is not shut down by the client. If not set, the client creates its own
+     * pool of TransferConfiguration.getConcurrency() threads on first use.
+     */
+    public MS3ClientBuilder transferExecutor(ExecutorService transferExecutor) {
+        m_transferExecutor = transferExecutor;
+        return this;
+    }
+
+    public ExecutorService getTransferExecutor() {
+        return m_transferExecutor;
+    }
+
+    public BufferPool getBufferPool() {
+        if(m_bufferPool == null) {
+            m_bufferPool = new BufferPool(m_transferBufferSize, m_maxPooledBuffers);
+        }
+        return m_bufferPool;
+    }
+
+    /**
+     * Share one buffer pool between several clients. Overrides transferBufferSize and maxPooledBuffers.
+     */
+    public MS3ClientBuilder bufferPool(BufferPool bufferPool) {
+        m_bufferPool = bufferPool;
+        return this;
+    }
+
+    /**
+     * @param transferBufferSize size in bytes of the buffers used to copy object contents
+     */
+    public MS3ClientBuilder transferBufferSize(int transferBufferSize) {
+        m_transferBufferSize = transferBufferSize;
+        m_bufferPool = null;
+        return this;
+    }
+
+    /**
+     * @param maxPooledBuffers number of idle transfer buffers kept for reuse, 0 to allocate every time
+     */
+    public MS3ClientBuilder maxPooledBuffers(int maxPooledBuffers) {
+        m_maxPooledBuffers = maxPooledBuffers;
+        m_bufferPool = null;
+        return this;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        if(m_retryPolicy == null) {
+            m_retryPolicy = new RetryPolicy();
+        }
+        return m_retryPolicy;
+    }
+
+    /**
+     * Retry policy of the built clients. Clients sharing a policy also share its retry budget.
+     * Use RetryPolicy.noRetry() to make a single attempt per request.
+     */
+    public MS3ClientBuilder retryPolicy(RetryPolicy retryPolicy) {
+        m_retryPolicy = retryPolicy;
+        return this;
+    }
+
+    public MS3Metrics getMetrics() {
+        return m_metrics;
+    }
+
+    /**
+     * Receiver of per-request metrics, e.g. HistogramMetrics or an adapter to a metrics library.
+     */
+    public MS3ClientBuilder metrics(MS3Metrics metrics) {
+        m_metrics = (metrics != null) ? metrics : MS3Metrics.NO_OP;
+        return this;
+    }
+
+    public BandwidthLimiter getUploadBandwidthLimiter() {
+        return m_uploadBandwidthLimiter;
+    }
+
+    /**
+     * Limit of the object content sent by putObject and uploadPart, may be shared with other clients.
+     */
+    public MS3ClientBuilder uploadBandwidthLimiter(BandwidthLimiter uploadBandwidthLimiter) {
+        m_uploadBandwidthLimiter = uploadBandwidthLimiter;
+        return this;
+    }
+
+    public BandwidthLimiter getDownloadBandwidthLimiter() {
+        return m_downloadBandwidthLimiter;
+    }
+
+    /**
+     * Limit of the object content received by getObject, may be shared with other clients.
+     */
+    public MS3ClientBuilder downloadBandwidthLimiter(BandwidthLimiter downloadBandwidthLimiter) {
+        m_downloadBandwidthLimiter = downloadBandwidthLimiter;
+        return this;
+    }
+
+    public int getMetadataCacheSize() {
+        return m_metadataCacheSize;
+    }
+
+    public long getMetadataCacheTTL() {
+        return m_metadataCacheTTL;
+    }
+
+    /**
+     * Cache getObjectMetadata results in the client.
+     *
+     * Entries are dropped by putObject, multipart completion and deletes made through the same client.
+     * Changes made by other clients are seen once the entry expires: expired entries are then
+     * revalidated with If-None-Match when their ETag is known.
+     *
+     * @param maxEntries maximum number of cached objects, 0 to disable the cache (default)
+     * @param ttlMillis time an entry is used without asking the server
+     */
+    public MS3ClientBuilder metadataCache(int maxEntries, long ttlMillis) {
+        m_metadataCacheSize = maxEntries;
+        m_metadataCacheTTL = ttlMillis;
+        return this;
+    }
+
+    public int getUrlCacheSize() {
+        return m_urlCacheSize;
+    }
+
+    public long getUrlCacheTTL() {
+        return m_urlCacheTTL;
+    }
+
+    /**
+     * Cache the URIs returned by the server for getUrl.
+     *
+     * @param maxEntries maximum number of cached URLs, 0 to disable the cache (default)
+     * @param ttlMillis time a URL is reused. It must be shorter than the validity of the URIs generated by the server.
+     */
+    public MS3ClientBuilder urlCache(int maxEntries, long ttlMillis) {
+        m_urlCacheSize = maxEntries;
+        m_urlCacheTTL = ttlMillis;
+        return this;
+    }
+
+    public PresignedUrlSigner getPresignedUrlSigner() {
+        return m_presignedUrlSigner;
+    }
+
+    /**
+     * Key used by generatePresignedUrl to sign URLs locally. The server must be configured with the same key.
+     *
+     * @param keyId identifies the key on the server, may be null
+     * @param secret shared HMAC-SHA256 secret
+     */
+    public MS3ClientBuilder presignKey(String keyId, byte[] secret) {
+        m_presignedUrlSigner = new PresignedUrlSigner(keyId, secret);
+        return this;
+    }
+
+    public int getMaxConnections() {
+        return m_maxConnections;
+    }
+
+    /**
+     * Maximum number of open connections of a client.
+     *
+     * Parallel transfers hold one connection per part, so it should not be lower than
+     * TransferConfiguration.getConcurrency().
+     */
+    public MS3ClientBuilder maxConnections(int maxConnections) {
+        m_maxConnections = maxConnections;
+        return this;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return (m_maxConnectionsPerRoute > 0) ? m_maxConnectionsPerRoute : m_maxConnections;
+    }
+
+    /**
+     * @param maxConnectionsPerRoute 0 or less to use maxConnections
+     */
+    public MS3ClientBuilder maxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        m_maxConnectionsPerRoute = maxConnectionsPerRoute;
+        return this;
+    }
+
+    public long getConnectionTTL() {
+        return m_connectionTTL;
+    }
+
+    /**
+     * Maximum lifetime of a pooled connection in milliseconds, for servers behind a DNS based load balancer.
+     *
+     * @param connectionTTL 0 or less to keep connections as long as they are usable
+     */
+    public MS3ClientBuilder connectionTTL(long connectionTTL) {
+        m_connectionTTL = connectionTTL;
+        return this;
+    }
+
+    public long getConnectionMaxIdleMillis() {
+        return m_connectionMaxIdleMillis;
+    }
+
+    /**
+     * Idle connections older than this are closed by a background thread.
+     * It is also the keep-alive duration when the server does not send a Keep-Alive timeout.
+     *
+     * @param connectionMaxIdleMillis 0 or less to disable the eviction
+     */
+    public MS3ClientBuilder connectionMaxIdleMillis(long connectionMaxIdleMillis) {
+        m_connectionMaxIdleMillis = connectionMaxIdleMillis;
+        return this;
+    }
+
+    public MS3ClientBuilder keepAliveStrategy(ConnectionKeepAliveStrategy keepAliveStrategy) {
+        m_keepAliveStrategy = keepAliveStrategy;
+        return this;
+    }
+
+    /**
+     * @param connectionTimeout milliseconds, 0 for infinite
+     */
+    public MS3ClientBuilder connectionTimeout(int connectionTimeout) {
+        m_connectionTimeout = connectionTimeout;
+        return this;
+    }
+
+    /**
+     * @param socketTimeout maximum inactivity between two packets in milliseconds, 0 for infinite
+     */
+    public MS3ClientBuilder socketTimeout(int socketTimeout) {
+        m_socketTimeout = socketTimeout;
+        return this;
+    }
+
+    /**
+     * @param connectionRequestTimeout time to wait for a free pooled connection in milliseconds, 0 for infinite
+     */
+    public MS3ClientBuilder connectionRequestTimeout(int connectionRequestTimeout) {
+        m_connectionRequestTimeout = connectionRequestTimeout;
+        return this;
+    }
+
+    private RequestConfig createRequestConfig() {
+        return RequestConfig.custom()
+                .setConnectTimeout(m_connectionTimeout)
+                .setSocketTimeout(m_socketTimeout)
+                .setConnectionRequestTimeout(m_connectionRequestTimeout)
+                .build();
+    }
+
+    private ConnectionKeepAliveStrategy createKeepAliveStrategy() {
+        if(m_keepAliveStrategy != null) {
+            return m_keepAliveStrategy;
+        }
+        final long maxIdleMillis = m_connectionMaxIdleMillis;
+        if(maxIdleMillis <= 0) {
+            return DefaultConnectionKeepAliveStrategy.INSTANCE;
+        }
+        return (response, context) -> {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return (duration > 0 && duration < maxIdleMillis) ? duration : maxIdleMillis;
+        };
+    }
+
+    /**
+     * The pool settings of this builder replace any connection manager set on the HttpClientBuilder,
+     * and its retry handler is disabled in favor of the RetryPolicy.
+     */
     public MS3Client build() {
         MS3Client ms3Client = null;
-        HttpClient httpClient = getHttpClientBuilder().build();
-        ms3Client = new MS3Client(serverUrl, httpClient);
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(m_connectionTTL, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(m_maxConnections);
+        connectionManager.setDefaultMaxPerRoute(getMaxConnectionsPerRoute());
+
+        HttpClientBuilder httpClientBuilder = getHttpClientBuilder()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(createRequestConfig())
+                .setKeepAliveStrategy(createKeepAliveStrategy())
+                // RetryPolicy is the only retry layer, with its backoff and budget
+                .disableAutomaticRetries();
+        if(m_connectionMaxIdleMillis > 0) {
+            httpClientBuilder.evictExpiredConnections();
+            httpClientBuilder.evictIdleConnections(m_connectionMaxIdleMillis, TimeUnit.MILLISECONDS);
+        }
+        CloseableHttpClient httpClient = httpClientBuilder.build();
+        ms3Client = new MS3Client(this, httpClient, connectionManager);
         return ms3Client;
     }
+
+    /**
+     * Build a non-blocking client. It shares the codec, the buffer pool and the pool limits of this builder but not the HTTP connections of build().
+     */
+    public MS3AsyncClient buildAsync() {
+        CloseableHttpAsyncClient httpAsyncClient = getHttpAsyncClientBuilder()
+                .setMaxConnTotal(m_maxConnections)
+                .setMaxConnPerRoute(getMaxConnectionsPerRoute())
+                .setDefaultRequestConfig(createRequestConfig())
+                .setKeepAliveStrategy(createKeepAliveStrategy())
+                .build();
+        httpAsyncClient.start();
+        return new MS3AsyncClient(serverUrl, httpAsyncClient, getJsonCodec(), getBufferPool(), m_metadataFormat);
+    }
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import com.amazonaws.annotation.ThreadSafe;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import kr.jclab.cloud.ms3.common.dto.*;
+import kr.jclab.cloud.ms3.common.model.ObjectMetadata;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES;
+
+/**
+ * Client-wide JSON codec.
+ *
+ * ObjectReader/ObjectWriter are immutable, so they are built once per type and shared by every request.
+ * Object metadata frames may also be CBOR encoded (see MetadataFormat). The CBOR mapper always has the
+ * default settings, whatever the JSON mapper is.
+ */
+@ThreadSafe
+public class MS3JsonCodec {
+    private final ObjectMapper m_objectMapper;
+
+    private final ConcurrentMap<Class<?>, ObjectReader> m_readers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, ObjectWriter> m_writers = new ConcurrentHashMap<>();
+
+    // Most metadata fields are usually null: leaving them out makes the frame a fraction of the JSON one
+    private final ObjectMapper m_cborObjectMapper = new ObjectMapper(new CBORFactory())
+            .configure(FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .configure(JsonGenerator.Feature.IGNORE_UNKNOWN, true)
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    private final ConcurrentMap<Class<?>, ObjectReader> m_cborReaders = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, ObjectWriter> m_cborWriters = new ConcurrentHashMap<>();
+
+    public MS3JsonCodec() {
+        this(createDefaultObjectMapper());
+    }
+
+    /**
+     * @param objectMapper fully configured mapper. It must not be reconfigured after being handed over.
+     */
+    public MS3JsonCodec(ObjectMapper objectMapper) {
+        m_objectMapper = objectMapper;
+
+        // Pre-build the hot path DTOs
+        readerFor(ListObjectsDTO.Response.class);
+        readerFor(BucketsListDTO.Response.class);
+        readerFor(ResultBase.class);
+        readerFor(PutObjectDTO.Response.class);
+        readerFor(GenerateUriDTO.Response.class);
+        readerFor(DeleteObjectsDTO.Response.class);
+        readerFor(CopyObjectDTO.Response.class);
+        readerFor(ObjectMetadata.class);
+        writerFor(ObjectMetadata.class);
+        writerFor(com.amazonaws.services.s3.model.ObjectMetadata.class);
+        cachedReader(m_cborReaders, m_cborObjectMapper, ObjectMetadata.class);
+        cachedWriter(m_cborWriters, m_cborObjectMapper, com.amazonaws.services.s3.model.ObjectMetadata.class);
+    }
+
+    public static ObjectMapper createDefaultObjectMapper() {
+        return new ObjectMapper()
+                .configure(FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .configure(JsonGenerator.Feature.IGNORE_UNKNOWN, true);
+    }
+
+    public ObjectMapper getObjectMapper() {
+        return m_objectMapper;
+    }
+
+    public ObjectReader readerFor(Class<?> type) {
+        return cachedReader(m_readers, m_objectMapper, type);
+    }
+
+    public ObjectWriter writerFor(Class<?> type) {
+        return cachedWriter(m_writers, m_objectMapper, type);
+    }
+
+    private static ObjectReader cachedReader(ConcurrentMap<Class<?>, ObjectReader> readers, ObjectMapper objectMapper, Class<?> type) {
+        ObjectReader reader = readers.get(type);
+        if(reader == null) {
+            reader = objectMapper.readerFor(type);
+            ObjectReader prev = readers.putIfAbsent(type, reader);
+            if(prev != null)
+                reader = prev;
+        }
+        return reader;
+    }
+
+    private static ObjectWriter cachedWriter(ConcurrentMap<Class<?>, ObjectWriter> writers, ObjectMapper objectMapper, Class<?> type) {
+        ObjectWriter writer = writers.get(type);
+        if(writer == null) {
+            writer = objectMapper.writerFor(type);
+            ObjectWriter prev = writers.putIfAbsent(type, writer);
+            if(prev != null)
+                writer = prev;
+        }
+        return writer;
+    }
+
+    public <T> T readValue(byte[] data, int offset, int length, Class<T> type) throws IOException {
+        return readerFor(type).readValue(data, offset, length);
+    }
+
+    /**
+     * Serialize with the runtime type of the value, like ObjectMapper.writeValueAsBytes.
+     */
+    public byte[] writeValueAsBytes(Object value) throws IOException {
+        return writerFor(value.getClass()).writeValueAsBytes(value);
+    }
+
+    /**
+     * Encode an object metadata frame.
+     */
+    public byte[] writeMetadata(Object metadata, MetadataFormat format) throws IOException {
+        if(format == MetadataFormat.CBOR) {
+            return cachedWriter(m_cborWriters, m_cborObjectMapper, metadata.getClass()).writeValueAsBytes(metadata);
+        }
+        return writeValueAsBytes(metadata);
+    }
+
+    /**
+     * Decode an object metadata frame.
+     */
+    public <T> T readMetadata(byte[] data, int offset, int length, MetadataFormat format, Class<T> type) throws IOException {
+        if(format == MetadataFormat.CBOR) {
+            return cachedReader(m_cborReaders, m_cborObjectMapper, type).readValue(data, offset, length);
+        }
+        return readValue(data, offset, length, type);
+    }
+
+    /**
+     * Decode straight from the entity stream without copying the body into a String.
+     *
+     * @return null if the body is empty
+     */
+    public <T> T readEntity(HttpEntity entity, Class<T> type) throws IOException {
+        JsonParser parser = createParser(entity);
+        if(parser == null) {
+            return null;
+        }
+        try {
+            return readerFor(type).readValue(parser);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Create a streaming parser over the entity, for responses that are too large to bind at once.
+     *
+     * @return null if the body is empty
+     */
+    public JsonParser createParser(HttpEntity entity) throws IOException {
+        if(entity == null || entity.getContentLength() == 0) {
+            return null;
+        }
+        InputStream inputStream = entity.getContent();
+        if(inputStream == null) {
+            return null;
+        }
+        if(entity.getContentLength() < 0) {
+            // No Content-Length: peek one byte to detect an empty body
+            PushbackInputStream pushbackInputStream = new PushbackInputStream(inputStream, 1);
+            int first = pushbackInputStream.read();
+            if(first < 0) {
+                inputStream.close();
+                return null;
+            }
+            pushbackInputStream.unread(first);
+            inputStream = pushbackInputStream;
+        }
+        Charset charset = getCharset(entity);
+        JsonFactory jsonFactory = m_objectMapper.getFactory();
+        if(charset == null || isJsonAutoDetectable(charset)) {
+            // Jackson detects UTF-8/16/32 by itself and parses bytes directly
+            return jsonFactory.createParser(inputStream);
+        }
+        return jsonFactory.createParser(new InputStreamReader(inputStream, charset));
+    }
+
+    private static Charset getCharset(HttpEntity entity) {
+        try {
+            ContentType contentType = ContentType.get(entity);
+            return (contentType != null) ? contentType.getCharset() : null;
+        } catch (RuntimeException e) {
+            // Invalid charset: fall back to the JSON default (UTF-8)
+            return null;
+        }
+    }
+
+    private static boolean isJsonAutoDetectable(Charset charset) {
+        return StandardCharsets.UTF_8.equals(charset)
+                || StandardCharsets.UTF_16.equals(charset)
+                || StandardCharsets.UTF_16BE.equals(charset)
+                || StandardCharsets.UTF_16LE.equals(charset)
+                || StandardCharsets.US_ASCII.equals(charset);
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.internal.AmazonS3ExceptionBuilder;
+import com.amazonaws.services.s3.internal.ServiceUtils;
+import com.amazonaws.services.s3.model.*;
+import com.amazonaws.util.SdkHttpUtils;
+import kr.jclab.cloud.ms3.common.dto.BucketsListDTO;
+import kr.jclab.cloud.ms3.common.dto.ListObjectsDTO;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URIBuilder;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.*;
+
+/**
+ * Wire protocol pieces shared by MS3Client and MS3AsyncClient.
+ */
+final class MS3Protocol {
+    static final String MEDIA_TYPE_JSON = "application/json";
+    static final String HEADER_METADATA_SIZE = "MS3-METADATA-SIZE";
+    // MetadataFormat token of the metadata frame, absent for JSON
+    static final String HEADER_METADATA_FORMAT = "MS3-METADATA-FORMAT";
+    // MetadataFormat tokens the client can read, in order of preference
+    static final String HEADER_METADATA_ACCEPT = "MS3-METADATA-ACCEPT";
+
+    // URL encoded "bucket/key" of the object to copy from
+    static final String HEADER_COPY_SOURCE = "MS3-COPY-SOURCE";
+    // "bytes=first-last" of the source, for copyPart
+    static final String HEADER_COPY_SOURCE_RANGE = "MS3-COPY-SOURCE-RANGE";
+    // COPY (keep the source metadata) or REPLACE (with the metadata sent as the body)
+    static final String HEADER_METADATA_DIRECTIVE = "MS3-METADATA-DIRECTIVE";
+
+    private MS3Protocol() {
+    }
+
+    static URI buildApiUri(String serverUrl, String path, String... parameters) throws SdkClientException {
+        try {
+            URIBuilder uriBuilder = new URIBuilder(serverUrl + path);
+            for(int i = 0; i + 1 < parameters.length; i += 2) {
+                if(parameters[i + 1] != null)
+                    uriBuilder.addParameter(parameters[i], parameters[i + 1]);
+            }
+            return uriBuilder.build();
+        } catch (URISyntaxException e) {
+            throw new SdkClientException(e);
+        }
+    }
+
+    static boolean isHttpStatusSuccess(int statusCode) {
+        return statusCode >= 200 && statusCode < 400;
+    }
+
+    static void throwErrorResponse(int statusCode) {
+        AmazonS3ExceptionBuilder exceptionBuilder = new AmazonS3ExceptionBuilder();
+        if(statusCode == HttpStatus.SC_NOT_FOUND) {
+            exceptionBuilder.setErrorMessage("object not found");
+        }else{
+            return ;
+        }
+        exceptionBuilder.setStatusCode(statusCode);
+        throw exceptionBuilder.build();
+    }
+
+    static URI listObjectsUri(String serverUrl, String bucketName, String prefix, String delimiter, String marker, Integer maxKeys) {
+        return buildApiUri(serverUrl, "api/bucket/list/" + bucketName,
+                "prefix", emptyToNull(prefix),
+                "delimiter", emptyToNull(delimiter),
+                "marker", emptyToNull(marker),
+                "max-keys", (maxKeys != null) ? maxKeys.toString() : null);
+    }
+
+    /**
+     * Read one page of a bucket listing.
+     *
+     * The paging parameters are applied again while reading the response, so that a server which
+     * ignores them and returns the whole bucket still yields S3 compatible pages.
+     *
+     * @param maxKeys null for no limit
+     * @return paging fields (truncated, nextMarker and commonPrefixes) of the page
+     */
+    static ListObjectsDTO.Response readListingPage(ObjectSummaryIterator iterator, List<S3ObjectSummary> objectSummaries, String prefix, String delimiter, String marker, Integer maxKeys) {
+        delimiter = emptyToNull(delimiter);
+        marker = emptyToNull(marker);
+
+        ListObjectsDTO.Response result = new ListObjectsDTO.Response();
+        int limit = (maxKeys != null) ? maxKeys : Integer.MAX_VALUE;
+        int count = 0;
+        boolean limitReached = false;
+        String lastEntry = null;
+        Set<String> commonPrefixes = new LinkedHashSet<>();
+        while(iterator.hasNext()) {
+            S3ObjectSummary item = iterator.next();
+            String key = item.getKey();
+            if(marker != null && (key.compareTo(marker) <= 0 || (delimiter != null && marker.endsWith(delimiter) && key.startsWith(marker)))) {
+                continue;
+            }
+            String commonPrefix = (delimiter != null) ? getCommonPrefix(key, prefix, delimiter) : null;
+            if(commonPrefix != null && commonPrefixes.contains(commonPrefix)) {
+                continue;
+            }
+            if(count >= limit) {
+                // There is at least one more entry
+                limitReached = true;
+                break;
+            }
+            if(commonPrefix != null) {
+                commonPrefixes.add(commonPrefix);
+                lastEntry = commonPrefix;
+            }else{
+                objectSummaries.add(item);
+                lastEntry = key;
+            }
+            count++;
+        }
+        ListObjectsDTO.Response pageInfo = iterator.getPageInfo();
+        commonPrefixes.addAll(pageInfo.commonPrefixes);
+        result.commonPrefixes.addAll(commonPrefixes);
+        if(limitReached) {
+            result.truncated = true;
+            result.nextMarker = lastEntry;
+        }else{
+            result.truncated = Boolean.TRUE.equals(pageInfo.truncated);
+            result.nextMarker = result.truncated ? (pageInfo.nextMarker != null ? pageInfo.nextMarker : lastEntry) : null;
+        }
+        return result;
+    }
+
+    /**
+     * @return a listing filled with the parameters of the request
+     */
+    static ObjectListing newObjectListing(ListObjectsRequest listObjectsRequest) {
+        ObjectListing objectListing = new ObjectListing();
+        objectListing.setBucketName(listObjectsRequest.getBucketName());
+        objectListing.setPrefix(listObjectsRequest.getPrefix());
+        objectListing.setDelimiter(listObjectsRequest.getDelimiter());
+        objectListing.setMarker(listObjectsRequest.getMarker());
+        if(listObjectsRequest.getMaxKeys() != null) {
+            objectListing.setMaxKeys(listObjectsRequest.getMaxKeys());
+        }
+        return objectListing;
+    }
+
+    static void setListingPage(ObjectListing objectListing, ListObjectsDTO.Response page) {
+        objectListing.setCommonPrefixes(page.commonPrefixes);
+        objectListing.setTruncated(page.truncated);
+        objectListing.setNextMarker(page.nextMarker);
+    }
+
+    private static String getCommonPrefix(String key, String prefix, String delimiter) {
+        int start = (prefix != null) ? prefix.length() : 0;
+        int index = key.indexOf(delimiter, start);
+        if(index < 0)
+            return null;
+        return key.substring(0, index + delimiter.length());
+    }
+
+    static List<Bucket> toBucketList(BucketsListDTO.Response responseBody) {
+        List<Bucket> bucketList = new ArrayList<>();
+        if(responseBody == null)
+            return bucketList;
+        for (BucketsListDTO.BucketSummary bucketSummary : responseBody.list) {
+            Bucket bucket = new Bucket(bucketSummary.bucketName);
+            if(bucketSummary.creationTime != null)
+                bucket.setCreationDate(new Date(bucketSummary.creationTime));
+            bucketList.add(bucket);
+        }
+        return bucketList;
+    }
+
+    /**
+     * @return value of the Range header for GetObjectRequest.getRange()
+     */
+    static String rangeHeader(long[] range) {
+        // setRange(start) stores Long.MAX_VALUE - 1 as the end
+        return "bytes=" + range[0] + "-" + ((range[1] < Long.MAX_VALUE - 1) ? Long.toString(range[1]) : "");
+    }
+
+    /**
+     * Build the S3Object of a successful api/bucket/object response: the object metadata
+     * prefix is read and the remaining content is handed to the caller.
+     *
+     * @param abortableRequest request aborted when the content is closed early, may be null
+     * @param transferMonitor progress and bandwidth limit of the content, may be null
+     */
+    static S3Object readObjectResponse(MS3JsonCodec jsonCodec, BufferPool bufferPool, GetObjectRequest getObjectRequest, HttpResponse httpResponse, HttpRequestBase abortableRequest,
+                                        TransferMonitor transferMonitor, ChecksumAlgorithm checksumAlgorithm) throws IOException {
+        S3Object s3Object = new S3Object();
+        Header metadataSizeHeader = httpResponse.getFirstHeader(HEADER_METADATA_SIZE);
+        int metadataSize = (metadataSizeHeader != null) ? Integer.parseInt(metadataSizeHeader.getValue()) : 0;
+        MetadataFormat metadataFormat = getMetadataFormat(httpResponse);
+        InputStream inputStream = httpResponse.getEntity().getContent();
+        s3Object.setBucketName(getObjectRequest.getBucketName());
+        s3Object.setKey(getObjectRequest.getKey());
+        if(metadataSize > 0) {
+            byte[] metadataBin = bufferPool.acquire(metadataSize);
+            try {
+                int metadataRemain = metadataSize;
+                int readlen;
+                while((metadataRemain > 0) && ((readlen = inputStream.read(metadataBin, metadataSize - metadataRemain, metadataRemain)) > 0)) {
+                    metadataRemain -= readlen;
+                }
+                if(metadataRemain > 0) {
+                    throw new EOFException("Object metadata ended " + metadataRemain + " bytes early");
+                }
+                s3Object.setObjectMetadata(jsonCodec.readMetadata(metadataBin, 0, metadataSize, metadataFormat, kr.jclab.cloud.ms3.common.model.ObjectMetadata.class));
+            } finally {
+                bufferPool.release(metadataBin);
+            }
+        }
+        Header etagHeader = httpResponse.getFirstHeader("ETag");
+        if(s3Object.getObjectMetadata().getETag() == null && etagHeader != null) {
+            s3Object.getObjectMetadata().setHeader(Headers.ETAG, ServiceUtils.removeQuotes(etagHeader.getValue()));
+        }
+        long[] range = getObjectRequest.getRange();
+        Header contentRangeHeader = httpResponse.getFirstHeader("Content-Range");
+        if(range != null && httpResponse.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT && contentRangeHeader != null) {
+            // Only set when the server honored the range
+            s3Object.getObjectMetadata().setHeader(Headers.CONTENT_RANGE, contentRangeHeader.getValue());
+        }
+        long contentLength = httpResponse.getEntity().getContentLength();
+        if(contentLength >= 0) {
+            contentLength -= metadataSize;
+        }
+        if(range != null && httpResponse.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT) {
+            // The server ignored the Range header: cut the range out of the whole object
+            org.apache.commons.io.IOUtils.skipFully(inputStream, range[0]);
+            if(range[1] < Long.MAX_VALUE - 1) {
+                inputStream = new BoundedInputStream(inputStream, range[1] - range[0] + 1);
+                contentLength = range[1] - range[0] + 1;
+            }else if(contentLength >= 0) {
+                contentLength -= range[0];
+            }
+        }
+        byte[] expectedDigest = (checksumAlgorithm != ChecksumAlgorithm.NONE) ? Checksummer.getResponseDigest(httpResponse, checksumAlgorithm) : null;
+        if(expectedDigest != null) {
+            // The checksum is the one of the whole object, also for a range
+            s3Object.getObjectMetadata().setHeader(checksumAlgorithm.getHeaderName(), httpResponse.getFirstHeader(checksumAlgorithm.getHeaderName()).getValue());
+            if(range == null) {
+                inputStream = Checksummer.create(checksumAlgorithm).wrap(inputStream, expectedDigest,
+                        "download of " + getObjectRequest.getBucketName() + "/" + getObjectRequest.getKey());
+            }
+        }
+        if(transferMonitor != null) {
+            if(contentLength >= 0) {
+                transferMonitor.contentLength(contentLength);
+            }
+            inputStream = transferMonitor.wrap(inputStream);
+        }
+        // Closing before the end aborts the connection instead of draining the rest, like AmazonS3Client
+        s3Object.setObjectContent(new S3ObjectInputStream(inputStream, abortableRequest));
+        return s3Object;
+    }
+
+    /**
+     * Advertise the metadata formats the client reads. Older servers ignore it and send JSON.
+     */
+    static void acceptMetadataFormat(HttpRequest httpRequest, MetadataFormat preferredFormat) {
+        if(preferredFormat != MetadataFormat.JSON) {
+            httpRequest.addHeader(HEADER_METADATA_ACCEPT, preferredFormat.getToken() + ", " + MetadataFormat.JSON.getToken());
+        }
+    }
+
+    /**
+     * Set the headers describing a metadata frame of the request body.
+     */
+    static void setMetadataFrame(HttpRequest httpRequest, byte[] metadataBin, MetadataFormat format) {
+        httpRequest.addHeader(HEADER_METADATA_SIZE, Integer.toString((metadataBin != null) ? metadataBin.length : 0));
+        if(metadataBin != null && format != MetadataFormat.JSON) {
+            httpRequest.addHeader(HEADER_METADATA_FORMAT, format.getToken());
+        }
+    }
+
+    static MetadataFormat getMetadataFormat(HttpResponse httpResponse) {
+        Header formatHeader = httpResponse.getFirstHeader(HEADER_METADATA_FORMAT);
+        MetadataFormat format = MetadataFormat.fromToken((formatHeader != null) ? formatHeader.getValue() : null);
+        if(format == null) {
+            throw new SdkClientException("Unsupported metadata format: " + formatHeader.getValue());
+        }
+        return format;
+    }
+
+    static String copySourceHeader(String bucketName, String key) {
+        return SdkHttpUtils.urlEncode(bucketName + "/" + key, true);
+    }
+
+    /**
+     * ETag as an entity-tag header value. ObjectMetadata holds it without the quotes.
+     */
+    static String quoteETag(String etag) {
+        if(etag.startsWith("\"") || etag.startsWith("W/")) {
+            return etag;
+        }
+        return "\"" + etag + "\"";
+    }
+
+    private static String emptyToNull(String value) {
+        return (value != null && !value.isEmpty()) ? value : null;
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.annotation.ThreadSafe;
+import com.amazonaws.event.ProgressEvent;
+import com.amazonaws.event.ProgressEventType;
+import com.amazonaws.event.ProgressListener;
+import com.amazonaws.event.SyncProgressListener;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Uploads and downloads whole directories with a bounded number of files in flight.
+ *
+ * Files are scheduled largest first, so a big file does not start last and stretch the end of the
+ * transfer. Large files (those putObject or getObject transfer as parallel parts) use the client
+ * transfer executor for their parts, and at most half of the workers take one at a time: the other
+ * workers keep on with the small files instead of queueing behind the parts of the large ones
+ * for connections.
+ *
+ * Per file, the transfer goes through MS3Client.putObject(PutObjectRequest) and
+ * MS3Client.getObject(GetObjectRequest, File) and uses their retries. Their progress events
+ * update the byte count of the transfer progress while the files are in flight.
+ */
+@ThreadSafe
+public class MS3TransferManager {
+    private final MS3Client m_client;
+    private final int m_concurrency;
+    private final ExecutorService m_executor;
+    private final boolean m_ownsExecutor;
+
+    public MS3TransferManager(MS3Client client) {
+        this(client, client.getTransferConfiguration().getDirectoryConcurrency());
+    }
+
+    /**
+     * @param concurrency maximum number of files transferred at the same time
+     */
+    public MS3TransferManager(MS3Client client, int concurrency) {
+        this(client, concurrency, null);
+    }
+
+    /**
+     * @param executor runs the file transfers, null for a pool of concurrency threads owned by this manager
+     */
+    public MS3TransferManager(MS3Client client, int concurrency, ExecutorService executor) {
+        m_client = client;
+        m_concurrency = Math.max(1, concurrency);
+        m_ownsExecutor = (executor == null);
+        m_executor = (executor != null) ? executor : Executors.newFixedThreadPool(m_concurrency, new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ms3-directory-transfer-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public MS3Client getClient() {
+        return m_client;
+    }
+
+    /**
+     * Upload the files of a directory to keyPrefix + their path relative to the directory, with '/' separators.
+     *
+     * @param keyPrefix virtual directory of the keys, null or empty for the root of the bucket
+     * @param includeSubdirectories true to upload the whole tree, false for the files directly in the directory
+     * @return the started transfer
+     * @throws SdkClientException if the directory cannot be read
+     */
+    public DirectoryTransfer uploadDirectory(String bucketName, String keyPrefix, File directory, boolean includeSubdirectories) throws SdkClientException {
+        if(directory == null || !directory.isDirectory()) {
+            throw new SdkClientException("Not a directory: " + directory);
+        }
+        String prefix = normalizePrefix(keyPrefix);
+        List<FileTask> tasks = new ArrayList<>();
+        collectFiles(directory, prefix, includeSubdirectories, tasks);
+
+        long largeThreshold = m_client.getTransferConfiguration().getMultipartUploadThreshold();
+        return start(bucketName, prefix, tasks, largeThreshold, (task, progressListener) ->
+                m_client.putObject(new PutObjectRequest(bucketName, task.key, task.file).withGeneralProgressListener(progressListener)));
+    }
+
+    /**
+     * Download every object under keyPrefix to destinationDirectory, keeping their path relative to the prefix.
+     * Keys ending with '/' (directory markers) are skipped.
+     *
+     * @param keyPrefix virtual directory to download, null or empty for the whole bucket
+     * @return the started transfer
+     * @throws SdkClientException if the objects cannot be listed
+     */
+    public DirectoryTransfer downloadDirectory(String bucketName, String keyPrefix, File destinationDirectory) throws SdkClientException {
+        String prefix = normalizePrefix(keyPrefix);
+        File root;
+        try {
+            root = destinationDirectory.getCanonicalFile();
+        } catch (IOException e) {
+            throw new SdkClientException(e);
+        }
+        List<FileTask> tasks = new ArrayList<>();
+        ListObjectsRequest listObjectsRequest = new ListObjectsRequest().withBucketName(bucketName).withPrefix(prefix.isEmpty() ? null : prefix);
+        ObjectListing objectListing = m_client.listObjects(listObjectsRequest);
+        while(true) {
+            for(S3ObjectSummary summary : objectListing.getObjectSummaries()) {
+                if(summary.getKey().endsWith("/")) {
+                    continue;
+                }
+                tasks.add(new FileTask(summary.getKey(), new File(root, summary.getKey().substring(prefix.length())), summary.getSize()));
+            }
+            if(!objectListing.isTruncated()) {
+                break;
+            }
+            objectListing = m_client.listNextBatchOfObjects(objectListing);
+        }
+
+        TransferConfiguration configuration = m_client.getTransferConfiguration();
+        long largeThreshold = (configuration.getParallelDownloadThreshold() > 0) ? configuration.getParallelDownloadThreshold() : Long.MAX_VALUE;
+        String rootPath = root.getPath() + File.separator;
+        return start(bucketName, prefix, tasks, largeThreshold, (task, progressListener) -> {
+            // A key with ".." segments must not escape the destination directory
+            if(!task.file.getCanonicalPath().startsWith(rootPath)) {
+                throw new SdkClientException("Key resolves outside of the destination directory: " + task.key);
+            }
+            m_client.getObject(new GetObjectRequest(bucketName, task.key).withGeneralProgressListener(progressListener), task.file);
+        });
+    }
+
+    /**
+     * Stop the threads of this manager if it created them. The client is not shut down.
+     */
+    public void shutdown() {
+        if(m_ownsExecutor) {
+            m_executor.shutdownNow();
+        }
+    }
+
+    private static String normalizePrefix(String keyPrefix) {
+        if(keyPrefix == null || keyPrefix.isEmpty()) {
+            return "";
+        }
+        return keyPrefix.endsWith("/") ? keyPrefix : keyPrefix + "/";
+    }
+
+    private static void collectFiles(File directory, String keyPrefix, boolean includeSubdirectories, List<FileTask> tasks) {
+        File[] files = directory.listFiles();
+        if(files == null) {
+            throw new SdkClientException("Unable to list directory: " + directory);
+        }
+        for(File file : files) {
+            if(file.isFile()) {
+                tasks.add(new FileTask(keyPrefix + file.getName(), file, file.length()));
+            }else if(includeSubdirectories && file.isDirectory()) {
+                collectFiles(file, keyPrefix + file.getName() + "/", true, tasks);
+            }
+        }
+    }
+
+    private static class FileTask {
+        final String key;
+        final File file;
+        final long size;
+        // Guarded by the TaskQueue
+        boolean holdsLargePermit = false;
+
+        FileTask(String key, File file, long size) {
+            this.key = key;
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    private interface FileOperation {
+        void transfer(FileTask task, ProgressListener progressListener) throws IOException;
+    }
+
+    /**
+     * Adds the bytes of one file to the transfer progress as they are transferred, and takes back
+     * those of a reset (retried) request. Parts and ranges may deliver their events on another thread,
+     * so the events after finish() are dropped and finish() sets the count of the file to its final value.
+     */
+    private static class FileProgressListener extends SyncProgressListener {
+        private final TransferProgress m_progress;
+        private final long m_size;
+        // Guarded by this
+        private long m_bytes = 0;
+        private boolean m_finished = false;
+
+        FileProgressListener(TransferProgress progress, long size) {
+            m_progress = progress;
+            m_size = size;
+        }
+
+        @Override
+        public synchronized void progressChanged(ProgressEvent progressEvent) {
+            ProgressEventType eventType = progressEvent.getEventType();
+            if(m_finished || !eventType.isByteCountEvent()
+                    || eventType == ProgressEventType.REQUEST_CONTENT_LENGTH_EVENT
+                    || eventType == ProgressEventType.RESPONSE_CONTENT_LENGTH_EVENT) {
+                return;
+            }
+            // Negative for reset events
+            long bytes = progressEvent.getBytesTransferred();
+            m_bytes += bytes;
+            m_progress.bytesTransferred(bytes);
+        }
+
+        /**
+         * @param success true to count the whole file, false to take back its bytes
+         */
+        synchronized void finish(boolean success) {
+            m_finished = true;
+            m_progress.bytesTransferred((success ? m_size : 0) - m_bytes);
+        }
+    }
+
+    /**
+     * Files sorted by decreasing size. Large files are taken from the head while a permit is
+     * available, otherwise workers take the smallest file left so they are never stuck behind them.
+     */
+    private static class TaskQueue {
+        private final Deque<FileTask> m_tasks;
+        private final long m_largeThreshold;
+        private int m_largePermits;
+
+        TaskQueue(List<FileTask> tasks, long largeThreshold, int largePermits) {
+            tasks.sort(Comparator.comparingLong((FileTask task) -> task.size).reversed());
+            m_tasks = new ArrayDeque<>(tasks);
+            m_largeThreshold = largeThreshold;
+            m_largePermits = largePermits;
+        }
+
+        synchronized FileTask next() {
+            FileTask task = m_tasks.peekFirst();
+            if(task == null) {
+                return null;
+            }
+            if(!isLarge(task)) {
+                return m_tasks.pollFirst();
+            }
+            if(m_largePermits > 0) {
+                m_largePermits--;
+                task.holdsLargePermit = true;
+                return m_tasks.pollFirst();
+            }
+            FileTask smallest = m_tasks.peekLast();
+            if(!isLarge(smallest)) {
+                return m_tasks.pollLast();
+            }
+            // Only large files are left: no permit is taken, so none is given back
+            return m_tasks.pollFirst();
+        }
+
+        synchronized void done(FileTask task) {
+            if(task.holdsLargePermit) {
+                task.holdsLargePermit = false;
+                m_largePermits++;
+            }
+        }
+
+        private boolean isLarge(FileTask task) {
+            return task.size >= m_largeThreshold;
+        }
+    }
+
+    private DirectoryTransfer start(String bucketName, String keyPrefix, List<FileTask> tasks, long largeThreshold, FileOperation operation) {
+        long totalBytes = 0;
+        for(FileTask task : tasks) {
+            totalBytes += task.size;
+        }
+        final DirectoryTransfer transfer = new DirectoryTransfer(bucketName, keyPrefix, new TransferProgress(totalBytes, tasks.size()));
+        final TaskQueue queue = new TaskQueue(tasks, largeThreshold, Math.max(1, m_concurrency / 2));
+
+        Runnable worker = () -> {
+            if(!transfer.workerStarted()) {
+                return;
+            }
+            try {
+                FileTask task;
+                while(!Thread.currentThread().isInterrupted() && !transfer.isAborted() && (task = queue.next()) != null) {
+                    FileProgressListener progressListener = new FileProgressListener(transfer.getProgress(), task.size);
+                    try {
+                        operation.transfer(task, progressListener);
+                        progressListener.finish(true);
+                        transfer.getProgress().fileCompleted();
+                    } catch (IOException | RuntimeException e) {
+                        progressListener.finish(false);
+                        transfer.addFailure(task.key, task.file, e);
+                    } finally {
+                        queue.done(task);
+                    }
+                }
+            } finally {
+                transfer.workerFinished();
+            }
+        };
+        int workerCount = Math.min(m_concurrency, tasks.size());
+        List<Future<?>> workers = new ArrayList<>(workerCount);
+        try {
+            for(int i = 0; i < workerCount; i++) {
+                workers.add(m_executor.submit(worker));
+            }
+        } catch (RejectedExecutionException e) {
+            for(Future<?> future : workers) {
+                future.cancel(true);
+            }
+            throw new SdkClientException("Transfer manager is shut down", e);
+        }
+        transfer.setWorkers(workers);
+        return transfer;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+/**
+ * Encoding of the object metadata frame sent ahead of the object content.
+ *
+ * The format of a frame is named by the MS3-METADATA-FORMAT header; a frame without it is JSON,
+ * which is all that older servers understand. The token carries a version, so that the layout
+ * of a binary format can change without breaking older peers.
+ */
+public enum MetadataFormat {
+    JSON("json"),
+    /** RFC 7049 CBOR of the same fields as the JSON frame */
+    CBOR("cbor/1");
+
+    private final String m_token;
+
+    MetadataFormat(String token) {
+        m_token = token;
+    }
+
+    /**
+     * @return value of the MS3-METADATA-FORMAT header
+     */
+    public String getToken() {
+        return m_token;
+    }
+
+    /**
+     * @param token header value, null for a frame without the header
+     * @return null if the format is unknown
+     */
+    public static MetadataFormat fromToken(String token) {
+        if(token == null) {
+            return JSON;
+        }
+        token = token.trim();
+        for(MetadataFormat format : values()) {
+            if(format.m_token.equalsIgnoreCase(token)) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
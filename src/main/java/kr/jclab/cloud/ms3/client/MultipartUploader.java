@@ -0,0 +1,176 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.model.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Uploads a file, or copies an object on the server, as concurrent multipart upload parts.
+ *
+ * A part that fails is retried on its own, up to maxPartAttempts, without restarting the upload.
+ * If the upload fails anyway it is aborted on the server.
+ */
+class MultipartUploader {
+    private static final long RETRY_DELAY_MILLIS = 200;
+
+    private final MS3Client m_client;
+    private final TransferConfiguration m_configuration;
+    private final ExecutorService m_executor;
+
+    MultipartUploader(MS3Client client, TransferConfiguration configuration, ExecutorService executor) {
+        m_client = client;
+        m_configuration = configuration;
+        m_executor = executor;
+    }
+
+    long calculatePartSize(long contentLength) {
+        return calculatePartSize(contentLength, m_configuration.getMinimumUploadPartSize());
+    }
+
+    private static long calculatePartSize(long contentLength, long minimumPartSize) {
+        long partSize = (contentLength + TransferConfiguration.MAXIMUM_UPLOAD_PARTS - 1) / TransferConfiguration.MAXIMUM_UPLOAD_PARTS;
+        return Math.max(partSize, Math.max(1, minimumPartSize));
+    }
+
+    /**
+     * @return null if the server does not implement multipart uploads, or answered the initiate request as not found
+     */
+    PutObjectResult upload(PutObjectRequest putObjectRequest) throws SdkClientException, AmazonServiceException {
+        final String bucketName = putObjectRequest.getBucketName();
+        final String key = putObjectRequest.getKey();
+        final File file = putObjectRequest.getFile();
+        final long contentLength = file.length();
+        final long partSize = calculatePartSize(contentLength);
+        final int partCount = (int)Math.max(1, (contentLength + partSize - 1) / partSize);
+
+        InitiateMultipartUploadResult initiateResult = m_client.initiateMultipartUpload(
+                new InitiateMultipartUploadRequest(bucketName, key, putObjectRequest.getMetadata()), true);
+        if(initiateResult == null) {
+            return null;
+        }
+        final String uploadId = initiateResult.getUploadId();
+        try {
+            PartETag[] partETags = transferParts(partCount, partNumber -> {
+                long offset = (partNumber - 1) * partSize;
+                return m_client.uploadPart(TransferMonitor.inherit(putObjectRequest, new UploadPartRequest())
+                        .withBucketName(bucketName)
+                        .withKey(key)
+                        .withUploadId(uploadId)
+                        .withPartNumber(partNumber)
+                        .withFile(file)
+                        .withFileOffset(offset)
+                        .withPartSize(Math.min(partSize, contentLength - offset))
+                        .withLastPart(partNumber == partCount)).getPartETag();
+            });
+            CompleteMultipartUploadResult completeResult = m_client.completeMultipartUpload(
+                    new CompleteMultipartUploadRequest(bucketName, key, uploadId, Arrays.asList(partETags)));
+            PutObjectResult result = new PutObjectResult();
+            result.setETag(completeResult.getETag());
+            result.setMetadata(putObjectRequest.getMetadata());
+            return result;
+        } catch (RuntimeException e) {
+            abortQuietly(bucketName, key, uploadId);
+            throw e;
+        }
+    }
+
+    /**
+     * Copy an object of sourceMetadata.getContentLength() bytes with copyPart requests.
+     * The data never leaves the server.
+     *
+     * @param sourceMetadata current metadata of the source object, used as the new metadata unless the request replaces it
+     */
+    CopyObjectResult copy(CopyObjectRequest copyObjectRequest, ObjectMetadata sourceMetadata) throws SdkClientException, AmazonServiceException {
+        final String bucketName = copyObjectRequest.getDestinationBucketName();
+        final String key = copyObjectRequest.getDestinationKey();
+        final long contentLength = sourceMetadata.getContentLength();
+        final long partSize = calculatePartSize(contentLength, m_configuration.getMultipartCopyPartSize());
+        final int partCount = (int)Math.max(1, (contentLength + partSize - 1) / partSize);
+        ObjectMetadata objectMetadata = (copyObjectRequest.getNewObjectMetadata() != null) ? copyObjectRequest.getNewObjectMetadata() : sourceMetadata;
+
+        InitiateMultipartUploadResult initiateResult = m_client.initiateMultipartUpload(
+                new InitiateMultipartUploadRequest(bucketName, key, objectMetadata));
+        final String uploadId = initiateResult.getUploadId();
+        try {
+            PartETag[] partETags = transferParts(partCount, partNumber -> {
+                long offset = (partNumber - 1) * partSize;
+                return m_client.copyPart(new CopyPartRequest()
+                        .withSourceBucketName(copyObjectRequest.getSourceBucketName())
+                        .withSourceKey(copyObjectRequest.getSourceKey())
+                        .withDestinationBucketName(bucketName)
+                        .withDestinationKey(key)
+                        .withUploadId(uploadId)
+                        .withPartNumber(partNumber)
+                        .withFirstByte(offset)
+                        .withLastByte(Math.min(offset + partSize, contentLength) - 1)).getPartETag();
+            });
+            CompleteMultipartUploadResult completeResult = m_client.completeMultipartUpload(
+                    new CompleteMultipartUploadRequest(bucketName, key, uploadId, Arrays.asList(partETags)));
+            CopyObjectResult result = new CopyObjectResult();
+            result.setETag(completeResult.getETag());
+            return result;
+        } catch (RuntimeException e) {
+            abortQuietly(bucketName, key, uploadId);
+            throw e;
+        }
+    }
+
+    interface PartOperation {
+        PartETag execute(int partNumber);
+    }
+
+    private PartETag[] transferParts(int partCount, PartOperation partOperation) {
+        final PartETag[] partETags = new PartETag[partCount];
+        ParallelTasks.run(m_executor, m_configuration.getConcurrency(), partCount,
+                index -> partETags[index] = transferPartWithRetry(partOperation, index + 1));
+        return partETags;
+    }
+
+    private PartETag transferPartWithRetry(PartOperation partOperation, int partNumber) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return partOperation.execute(partNumber);
+            } catch (AmazonServiceException e) {
+                // Rejected by the server, e.g. the upload does not exist anymore
+                throw e;
+            } catch (SdkClientException e) {
+                if (attempt >= m_configuration.getMaxPartAttempts()) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SdkClientException("Multipart transfer interrupted", e);
+            }
+        }
+    }
+
+    private void abortQuietly(String bucketName, String key, String uploadId) {
+        try {
+            m_client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+        } catch (RuntimeException e) {
+            // The original error is more important
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.annotation.NotThreadSafe;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import kr.jclab.cloud.ms3.common.dto.ListObjectsDTO;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.HttpClientUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Incremental reader of an api/bucket/list response.
+ *
+ * Summaries are parsed token by token while the caller iterates, so only one entry is held in memory
+ * regardless of the bucket size. The underlying connection is released when the listing is exhausted
+ * or when close() is called. Closing before the end aborts the request rather than downloading the rest
+ * of the listing.
+ */
+@NotThreadSafe
+public class ObjectSummaryIterator implements Iterator<S3ObjectSummary>, Closeable {
+    private static final String FIELD_LIST = "list";
+    private static final String FIELD_TRUNCATED = "truncated";
+    private static final String FIELD_NEXT_MARKER = "nextMarker";
+    private static final String FIELD_COMMON_PREFIXES = "commonPrefixes";
+
+    // null when the response can not be aborted (e.g. already buffered)
+    private final HttpUriRequest m_httpRequest;
+    private final HttpResponse m_httpResponse;
+    private final JsonParser m_parser;
+    private final String m_prefix;
+
+    // Root fields other than the list itself
+    private final ListObjectsDTO.Response m_pageInfo = new ListObjectsDTO.Response();
+
+    private S3ObjectSummary m_next = null;
+    private boolean m_inList = false;
+    private boolean m_finished = false;
+
+    /**
+     * @param httpRequest request of the response, aborted when the iterator is closed early. May be null.
+     * @param prefix if not null, entries not starting with it are skipped (for servers that ignore the prefix parameter)
+     */
+    ObjectSummaryIterator(HttpUriRequest httpRequest, HttpResponse httpResponse, JsonParser parser, String prefix) {
+        m_httpRequest = httpRequest;
+        m_httpResponse = httpResponse;
+        m_parser = parser;
+        m_prefix = (prefix != null && !prefix.isEmpty()) ? prefix : null;
+        if(parser == null) {
+            finish(true);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(m_next != null) {
+            return true;
+        }
+        if(m_finished) {
+            return false;
+        }
+        try {
+            m_next = readNext();
+        } catch (IOException e) {
+            close();
+            throw new SdkClientException(e);
+        }
+        return m_next != null;
+    }
+
+    @Override
+    public S3ObjectSummary next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        S3ObjectSummary item = m_next;
+        m_next = null;
+        return item;
+    }
+
+    /**
+     * Paging fields of the response. Complete only once the iterator is exhausted,
+     * because the server may send them after the list.
+     */
+    public ListObjectsDTO.Response getPageInfo() {
+        return m_pageInfo;
+    }
+
+    @Override
+    public void close() {
+        finish(false);
+    }
+
+    /**
+     * @param endOfListing true if the whole response was read. Otherwise the request is aborted,
+     *                     because releasing the connection would first read the rest of the response.
+     */
+    private void finish(boolean endOfListing) {
+        if(m_finished)
+            return;
+        m_finished = true;
+        if(!endOfListing && m_httpRequest != null) {
+            m_httpRequest.abort();
+        }
+        if(m_parser != null) {
+            try { m_parser.close(); } catch (IOException closee) { }
+        }
+        HttpClientUtils.closeQuietly(m_httpResponse);
+    }
+
+    private S3ObjectSummary readNext() throws IOException {
+        while(true) {
+            if(m_inList) {
+                JsonToken token = m_parser.nextToken();
+                if(token == JsonToken.START_OBJECT) {
+                    S3ObjectSummary item = readSummary();
+                    if(m_prefix == null || (item.getKey() != null && item.getKey().startsWith(m_prefix))) {
+                        return item;
+                    }
+                    continue;
+                }
+                if(token != JsonToken.END_ARRAY) {
+                    throw new SdkClientException("Unexpected token in object list: " + token);
+                }
+                m_inList = false;
+            }
+            if(!seekList()) {
+                finish(true);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Advance to the start of the root "list" array, skipping other root fields.
+     *
+     * @return false if the end of the root object was reached
+     */
+    private boolean seekList() throws IOException {
+        JsonToken token = m_parser.getCurrentToken();
+        if(token == null) {
+            token = m_parser.nextToken();
+            if(token != JsonToken.START_OBJECT) {
+                return false;
+            }
+        }
+        while((token = m_parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String fieldName = m_parser.getCurrentName();
+            token = m_parser.nextToken();
+            if(FIELD_LIST.equals(fieldName) && token == JsonToken.START_ARRAY) {
+                m_inList = true;
+                return true;
+            }
+            readPageField(fieldName, token);
+        }
+        return false;
+    }
+
+    private void readPageField(String fieldName, JsonToken token) throws IOException {
+        if(token == JsonToken.VALUE_NULL) {
+            return;
+        }
+        switch (fieldName) {
+            case FIELD_TRUNCATED:
+                m_pageInfo.truncated = m_parser.getValueAsBoolean();
+                break;
+            case FIELD_NEXT_MARKER:
+                m_pageInfo.nextMarker = m_parser.getValueAsString();
+                break;
+            case FIELD_COMMON_PREFIXES:
+                if(token == JsonToken.START_ARRAY) {
+                    while(m_parser.nextToken() != JsonToken.END_ARRAY) {
+                        m_pageInfo.commonPrefixes.add(m_parser.getValueAsString());
+                    }
+                    break;
+                }
+                m_parser.skipChildren();
+                break;
+            default:
+                m_parser.skipChildren();
+                break;
+        }
+    }
+
+    private S3ObjectSummary readSummary() throws IOException {
+        S3ObjectSummary item = new S3ObjectSummary();
+        while(m_parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = m_parser.getCurrentName();
+            JsonToken token = m_parser.nextToken();
+            if(token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (fieldName) {
+                case "bucketName":
+                    item.setBucketName(m_parser.getValueAsString());
+                    break;
+                case "key":
+                    item.setKey(m_parser.getValueAsString());
+                    break;
+                case "size":
+                    item.setSize(m_parser.getValueAsLong());
+                    break;
+                case "lastModified":
+                    item.setLastModified(new Date(m_parser.getValueAsLong()));
+                    break;
+                default:
+                    m_parser.skipChildren();
+                    break;
+            }
+        }
+        return item;
+    }
+}
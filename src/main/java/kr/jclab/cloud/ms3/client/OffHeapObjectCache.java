@@ -0,0 +1,511 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import com.amazonaws.annotation.ThreadSafe;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of small objects whose content is held outside the Java heap.
+ *
+ * The content lives in direct ByteBuffer slabs divided into BLOCK_SIZE blocks, so a full cache adds
+ * nothing for the garbage collector to trace or copy; only a small entry per object stays on the heap.
+ * Slabs of up to 1 MiB are allocated as needed up to maxBytes and are never released.
+ *
+ * Eviction is LRU with TinyLFU admission: when the cache is full, a new object only replaces the least
+ * recently used one if it was requested more often recently, according to a count-min sketch of the
+ * requests. A scan over many objects read once therefore does not flush the hot ones.
+ *
+ * Entries are served without contacting the server until they expire or are invalidated by a write
+ * through a client using the cache.
+ */
+@ThreadSafe
+public class OffHeapObjectCache {
+    public static final int DEFAULT_MAX_OBJECT_SIZE = 64 * 1024;
+
+    static final int BLOCK_SIZE = 1024;
+    private static final int BLOCKS_PER_SLAB = 1024;
+
+    private static class Entry {
+        final ObjectMetadata objectMetadata;
+        final int[] blocks;
+        final int length;
+        final long expiresAt;
+        // Readers copying the content. The blocks are freed when the entry is removed and not pinned. Guarded by the cache
+        int pins = 0;
+        boolean removed = false;
+
+        Entry(ObjectMetadata objectMetadata, int[] blocks, int length, long expiresAt) {
+            this.objectMetadata = objectMetadata;
+            this.blocks = blocks;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final long m_maxBytes;
+    private final int m_maxObjectSize;
+    private final long m_ttlNanos;
+    private final int m_maxBlocks;
+
+    // All guarded by m_entries
+    private final LinkedHashMap<String, Entry> m_entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final List<ByteBuffer> m_slabs = new ArrayList<>();
+    private int[] m_freeBlocks = new int[0];
+    private int m_freeCount = 0;
+    private long m_usedBytes = 0;
+    // Incremented by every invalidation, so that a read started before it does not store stale content
+    private long m_generation = 0;
+    private final FrequencySketch m_sketch;
+
+    private final AtomicLong m_hitCount = new AtomicLong();
+    private final AtomicLong m_missCount = new AtomicLong();
+    private final AtomicLong m_evictionCount = new AtomicLong();
+    private final AtomicLong m_rejectionCount = new AtomicLong();
+
+    /**
+     * @param maxBytes off-heap memory for the object content, rounded up to whole blocks
+     * @param ttlMillis time to live of an entry, 0 or less to keep entries until they are evicted or invalidated
+     */
+    public OffHeapObjectCache(long maxBytes, long ttlMillis) {
+        this(maxBytes, ttlMillis, DEFAULT_MAX_OBJECT_SIZE);
+    }
+
+    /**
+     * @param maxObjectSize larger objects are not cached
+     */
+    public OffHeapObjectCache(long maxBytes, long ttlMillis, int maxObjectSize) {
+        if(maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        long maxBlocks = (maxBytes + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if(maxBlocks > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("maxBytes is too large: " + maxBytes);
+        }
+        m_maxBlocks = (int)maxBlocks;
+        m_maxBytes = maxBlocks * BLOCK_SIZE;
+        m_maxObjectSize = (int)Math.min(maxObjectSize, m_maxBytes);
+        m_ttlNanos = (ttlMillis > 0) ? TimeUnit.MILLISECONDS.toNanos(ttlMillis) : 0;
+        // Sized for the number of objects of a typical size that fit
+        m_sketch = new FrequencySketch((int)Math.min(1 << 24, Math.max(64, m_maxBytes / (4 * 1024))));
+    }
+
+    public long getMaxBytes() {
+        return m_maxBytes;
+    }
+
+    public int getMaxObjectSize() {
+        return m_maxObjectSize;
+    }
+
+    public long getTtlMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(m_ttlNanos);
+    }
+
+    /**
+     * @param contentLength -1 if unknown
+     */
+    public boolean isCacheable(long contentLength) {
+        return contentLength >= 0 && contentLength <= m_maxObjectSize;
+    }
+
+    static String getCacheKey(String bucketName, String key) {
+        return bucketName + "/" + key;
+    }
+
+    /**
+     * @return a copy of the cached content and its metadata, null on a miss
+     */
+    CachedObject get(String bucketName, String key) {
+        String cacheKey = getCacheKey(bucketName, key);
+        Entry entry;
+        synchronized (m_entries) {
+            m_sketch.increment(cacheKey.hashCode());
+            entry = m_entries.get(cacheKey);
+            if(entry != null && m_ttlNanos > 0 && entry.expiresAt - System.nanoTime() <= 0) {
+                removeEntry(cacheKey);
+                entry = null;
+            }
+            if(entry == null) {
+                m_missCount.incrementAndGet();
+                return null;
+            }
+            entry.pins++;
+        }
+        byte[] content = new byte[entry.length];
+        try {
+            int offset = 0;
+            for(int block : entry.blocks) {
+                int length = Math.min(BLOCK_SIZE, entry.length - offset);
+                ByteBuffer buffer = blockBuffer(block);
+                buffer.get(content, offset, length);
+                offset += length;
+            }
+        } finally {
+            synchronized (m_entries) {
+                entry.pins--;
+                if(entry.removed && entry.pins == 0) {
+                    freeBlocks(entry);
+                }
+            }
+        }
+        m_hitCount.incrementAndGet();
+        return new CachedObject(entry.objectMetadata.clone(), content);
+    }
+
+    /**
+     * Store an object, if the admission policy lets it in.
+     *
+     * @return true if it was stored
+     */
+    boolean put(String bucketName, String key, ObjectMetadata objectMetadata, byte[] content, int length) {
+        synchronized (m_entries) {
+            return put(getCacheKey(bucketName, key), objectMetadata, content, length, m_generation);
+        }
+    }
+
+    /**
+     * @return a token to take before requesting an object from the server, for cacheWhileReading()
+     */
+    long getGeneration() {
+        synchronized (m_entries) {
+            return m_generation;
+        }
+    }
+
+    /**
+     * Keep a copy of the content while the caller reads it. It is stored when the stream reaches the end
+     * within the size limit and no invalidation happened since generation was taken.
+     */
+    InputStream cacheWhileReading(InputStream content, String bucketName, String key, ObjectMetadata objectMetadata, long generation) {
+        return new CachingInputStream(content, getCacheKey(bucketName, key), objectMetadata.clone(), generation);
+    }
+
+    public void remove(String bucketName, String key) {
+        synchronized (m_entries) {
+            m_generation++;
+            removeEntry(getCacheKey(bucketName, key));
+        }
+    }
+
+    public void clear() {
+        synchronized (m_entries) {
+            m_generation++;
+            for(String cacheKey : new ArrayList<>(m_entries.keySet())) {
+                removeEntry(cacheKey);
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (m_entries) {
+            return m_entries.size();
+        }
+    }
+
+    /**
+     * @return off-heap bytes held by the entries, in whole blocks
+     */
+    public long getUsedBytes() {
+        synchronized (m_entries) {
+            return m_usedBytes;
+        }
+    }
+
+    public long getHitCount() {
+        return m_hitCount.get();
+    }
+
+    public long getMissCount() {
+        return m_missCount.get();
+    }
+
+    /**
+     * @return number of entries dropped to make room for new ones
+     */
+    public long getEvictionCount() {
+        return m_evictionCount.get();
+    }
+
+    /**
+     * @return number of objects not stored because they were requested less often than the entries they would replace
+     */
+    public long getRejectionCount() {
+        return m_rejectionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "[hits: " + getHitCount() + "; misses: " + getMissCount() + "; evictions: " + getEvictionCount()
+                + "; rejections: " + getRejectionCount() + "; size: " + getUsedBytes() + "/" + m_maxBytes + " bytes]";
+    }
+
+    static final class CachedObject {
+        final ObjectMetadata objectMetadata;
+        final byte[] content;
+
+        CachedObject(ObjectMetadata objectMetadata, byte[] content) {
+            this.objectMetadata = objectMetadata;
+            this.content = content;
+        }
+    }
+
+    // Caller holds m_entries
+    private boolean put(String cacheKey, ObjectMetadata objectMetadata, byte[] content, int length, long generation) {
+        if(generation != m_generation || length > m_maxObjectSize) {
+            return false;
+        }
+        int blockCount = Math.max(1, (length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        removeEntry(cacheKey);
+        if(!reserveBlocks(blockCount, cacheKey.hashCode())) {
+            m_rejectionCount.incrementAndGet();
+            return false;
+        }
+        int[] blocks = new int[blockCount];
+        int offset = 0;
+        for(int i = 0; i < blockCount; i++) {
+            blocks[i] = m_freeBlocks[--m_freeCount];
+            int blockLength = Math.min(BLOCK_SIZE, length - offset);
+            if(blockLength > 0) {
+                blockBuffer(blocks[i]).put(content, offset, blockLength);
+                offset += blockLength;
+            }
+        }
+        m_usedBytes += (long)blockCount * BLOCK_SIZE;
+        long expiresAt = (m_ttlNanos > 0) ? System.nanoTime() + m_ttlNanos : 0;
+        m_entries.put(cacheKey, new Entry(objectMetadata, blocks, length, expiresAt));
+        return true;
+    }
+
+    /**
+     * Make blockCount blocks free, allocating slabs or evicting entries.
+     *
+     * @return false if the candidate is not admitted or the room is held by entries being read
+     */
+    private boolean reserveBlocks(int blockCount, int candidateHash) {
+        while(m_freeCount < blockCount && (long)m_slabs.size() * BLOCKS_PER_SLAB < m_maxBlocks) {
+            allocateSlab();
+        }
+        if(m_freeCount >= blockCount) {
+            return true;
+        }
+        Iterator<Map.Entry<String, Entry>> iterator = m_entries.entrySet().iterator();
+        if(!iterator.hasNext()
+                || m_sketch.frequency(candidateHash) <= m_sketch.frequency(iterator.next().getKey().hashCode())) {
+            return false;
+        }
+        while(m_freeCount < blockCount && !m_entries.isEmpty()) {
+            removeEntry(m_entries.keySet().iterator().next());
+            m_evictionCount.incrementAndGet();
+        }
+        return m_freeCount >= blockCount;
+    }
+
+    private void allocateSlab() {
+        int firstBlock = m_slabs.size() * BLOCKS_PER_SLAB;
+        // Only the last slab may be smaller, so that block / BLOCKS_PER_SLAB is its slab
+        int endBlock = Math.min(m_maxBlocks, firstBlock + BLOCKS_PER_SLAB);
+        m_slabs.add(ByteBuffer.allocateDirect((endBlock - firstBlock) * BLOCK_SIZE));
+        if(m_freeBlocks.length < endBlock) {
+            int[] freeBlocks = new int[endBlock];
+            System.arraycopy(m_freeBlocks, 0, freeBlocks, 0, m_freeCount);
+            m_freeBlocks = freeBlocks;
+        }
+        // Pushed in reverse so that blocks are handed out in address order
+        for(int block = endBlock - 1; block >= firstBlock; block--) {
+            m_freeBlocks[m_freeCount++] = block;
+        }
+    }
+
+    // Caller holds m_entries
+    private void removeEntry(String cacheKey) {
+        Entry entry = m_entries.remove(cacheKey);
+        if(entry == null) {
+            return;
+        }
+        entry.removed = true;
+        if(entry.pins == 0) {
+            freeBlocks(entry);
+        }
+    }
+
+    // Caller holds m_entries
+    private void freeBlocks(Entry entry) {
+        for(int block : entry.blocks) {
+            m_freeBlocks[m_freeCount++] = block;
+        }
+        m_usedBytes -= (long)entry.blocks.length * BLOCK_SIZE;
+    }
+
+    /**
+     * @return a buffer positioned on the block, private to the caller
+     */
+    private ByteBuffer blockBuffer(int block) {
+        ByteBuffer slab;
+        synchronized (m_entries) {
+            slab = m_slabs.get(block / BLOCKS_PER_SLAB);
+        }
+        ByteBuffer buffer = slab.duplicate();
+        buffer.position((block % BLOCKS_PER_SLAB) * BLOCK_SIZE);
+        return buffer;
+    }
+
+    private class CachingInputStream extends FilterInputStream {
+        private final String m_cacheKey;
+        private final ObjectMetadata m_objectMetadata;
+        private final long m_generation;
+        // null once the content is known not to fit
+        private ByteArrayOutputStream m_copy = new ByteArrayOutputStream();
+
+        CachingInputStream(InputStream in, String cacheKey, ObjectMetadata objectMetadata, long generation) {
+            super(in);
+            m_cacheKey = cacheKey;
+            m_objectMetadata = objectMetadata;
+            m_generation = generation;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = in.read();
+            if(value < 0) {
+                endOfStream();
+            }else if(m_copy != null) {
+                copy(new byte[] { (byte)value }, 0, 1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int readlen = in.read(b, off, len);
+            if(readlen < 0) {
+                endOfStream();
+            }else if(readlen > 0 && m_copy != null) {
+                copy(b, off, readlen);
+            }
+            return readlen;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            m_copy = null;
+            return in.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            m_copy = null;
+            super.close();
+        }
+
+        private void copy(byte[] b, int off, int len) {
+            if(m_copy.size() + len > m_maxObjectSize) {
+                m_copy = null;
+                return;
+            }
+            m_copy.write(b, off, len);
+        }
+
+        private void endOfStream() {
+            if(m_copy == null) {
+                return;
+            }
+            byte[] content = m_copy.toByteArray();
+            m_copy = null;
+            synchronized (m_entries) {
+                put(m_cacheKey, m_objectMetadata, content, content.length, m_generation);
+            }
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters with periodic halving, as in TinyLFU.
+     */
+    private static final class FrequencySketch {
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+        private final long[] m_table;
+        private final int m_sampleSize;
+        private int m_additions = 0;
+
+        FrequencySketch(int expectedEntries) {
+            int tableSize = Integer.highestOneBit(Math.max(16, expectedEntries) - 1) << 1;
+            m_table = new long[tableSize];
+            m_sampleSize = 10 * expectedEntries;
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for(int i = 0; i < 4; i++) {
+                frequency = Math.min(frequency, counter(hash, i));
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for(int i = 0; i < 4; i++) {
+                int index = index(hash, i);
+                int shift = counterShift(hash, i);
+                if(((m_table[index] >>> shift) & 0xF) < 15) {
+                    m_table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if(added && ++m_additions >= m_sampleSize) {
+                // Age every counter so that past popularity fades
+                for(int i = 0; i < m_table.length; i++) {
+                    m_table[i] = (m_table[i] >>> 1) & RESET_MASK;
+                }
+                m_additions /= 2;
+            }
+        }
+
+        private int counter(int hash, int i) {
+            return (int)((m_table[index(hash, i)] >>> counterShift(hash, i)) & 0xF);
+        }
+
+        private int index(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int)h & (m_table.length - 1);
+        }
+
+        // One of the 16 counters of the long, chosen by other bits of the hash for each function
+        private static int counterShift(int hash, int i) {
+            return (((hash >>> (i * 8)) & 0xF) << 2);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import org.apache.http.HttpStatus;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Downloads an object to a file as concurrent ranged GETs.
+ *
+ * The file is sized up front and every range is written at its own position
+ * with FileChannel.write, so ranges can complete in any order.
+ *
+ * With CRC-32C checksums, the CRC of every range is computed while it is written and the CRCs are
+ * combined at the end, so the whole object is checked without reading the file again.
+ *
+ * The first range is downloaded before the others: if the server answers it with the whole object
+ * instead of a 206, the object is downloaded as a single stream rather than once per range.
+ * Every range must have the ETag of the planned object, so an object replaced during the download
+ * fails it instead of producing a file mixing both versions.
+ */
+class ParallelDownloader {
+    private static final long RETRY_DELAY_MILLIS = 200;
+
+    private final MS3Client m_client;
+    private final TransferConfiguration m_configuration;
+    private final ExecutorService m_executor;
+
+    ParallelDownloader(MS3Client client, TransferConfiguration configuration, ExecutorService executor) {
+        m_client = client;
+        m_configuration = configuration;
+        m_executor = executor;
+    }
+
+    /**
+     * @param objectMetadata current metadata of the object, giving its length and ETag
+     */
+    void download(GetObjectRequest getObjectRequest, ObjectMetadata objectMetadata, File destinationFile) throws SdkClientException, AmazonServiceException {
+        final long contentLength = objectMetadata.getContentLength();
+        final String etag = objectMetadata.getETag();
+        final long partSize = Math.max(1, m_configuration.getDownloadPartSize());
+        final int partCount = (int)Math.max(1, (contentLength + partSize - 1) / partSize);
+        File parentDirectory = destinationFile.getAbsoluteFile().getParentFile();
+        if (parentDirectory != null && !parentDirectory.exists()) {
+            parentDirectory.mkdirs();
+        }
+        boolean success = false;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(destinationFile, "rw")) {
+            randomAccessFile.setLength(contentLength);
+            final FileChannel channel = randomAccessFile.getChannel();
+            final boolean checkCrc = (m_client.getChecksumAlgorithm() == ChecksumAlgorithm.CRC32C);
+            final long[] rangeCrcs = new long[partCount];
+            final AtomicReference<String> expectedChecksum = new AtomicReference<>();
+            RangeResult firstResult = downloadRangeWithRetry(getObjectRequest, 0, Math.min(partSize, contentLength) - 1, etag, channel, checkCrc, true);
+            if (firstResult == null) {
+                downloadObject(getObjectRequest, contentLength, etag, channel);
+                success = true;
+                return;
+            }
+            rangeCrcs[0] = firstResult.crc;
+            if (firstResult.expectedChecksum != null) {
+                expectedChecksum.set(firstResult.expectedChecksum);
+            }
+            ParallelTasks.run(m_executor, m_configuration.getConcurrency(), partCount - 1, taskIndex -> {
+                int index = taskIndex + 1;
+                long start = index * partSize;
+                long end = Math.min(start + partSize, contentLength) - 1;
+                RangeResult rangeResult = downloadRangeWithRetry(getObjectRequest, start, end, etag, channel, checkCrc, false);
+                if (checkCrc) {
+                    rangeCrcs[index] = rangeResult.crc;
+                    if (rangeResult.expectedChecksum != null) {
+                        expectedChecksum.set(rangeResult.expectedChecksum);
+                    }
+                }
+            });
+            if (checkCrc && expectedChecksum.get() != null) {
+                long crc = rangeCrcs[0];
+                for (int index = 1; index < partCount; index++) {
+                    crc = Crc32c.combine(crc, rangeCrcs[index], Math.min(partSize, contentLength - index * partSize));
+                }
+                Checksummer.verify(ChecksumAlgorithm.CRC32C, Checksummer.decode(ChecksumAlgorithm.CRC32C, expectedChecksum.get()),
+                        Checksummer.crcBytes(crc), "download of " + getObjectRequest.getBucketName() + "/" + getObjectRequest.getKey());
+            }
+            success = true;
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to store object contents to disk: " + e.getMessage(), e);
+        } finally {
+            if (!success) {
+                destinationFile.delete();
+            }
+        }
+    }
+
+    private static class RangeResult {
+        long crc;
+        // Checksum of the whole object sent with the range, null if none
+        String expectedChecksum;
+    }
+
+    /**
+     * @param probe true to return null, without reading the content, if the server ignores the range
+     */
+    private RangeResult downloadRangeWithRetry(GetObjectRequest getObjectRequest, long start, long end, String etag, FileChannel channel, boolean checkCrc, boolean probe) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return downloadRange(getObjectRequest, start, end, etag, channel, checkCrc, probe);
+            } catch (AmazonServiceException e) {
+                throw e;
+            } catch (SdkClientException e) {
+                if (attempt >= m_configuration.getMaxPartAttempts()) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SdkClientException("Download interrupted", e);
+            }
+        }
+    }
+
+    private RangeResult downloadRange(GetObjectRequest getObjectRequest, long start, long end, String etag, FileChannel channel, boolean checkCrc, boolean probe) {
+        GetObjectRequest rangeRequest = TransferMonitor.inherit(getObjectRequest, new GetObjectRequest(getObjectRequest.getBucketName(), getObjectRequest.getKey()))
+                .withRange(start, end);
+        S3Object s3Object = m_client.getObject(rangeRequest);
+        checkETag(s3Object, etag);
+        if (probe && s3Object.getObjectMetadata().getRawMetadataValue(Headers.CONTENT_RANGE) == null) {
+            // Closing would read the whole object
+            s3Object.getObjectContent().abort();
+            return null;
+        }
+        Checksummer checksummer = checkCrc ? Checksummer.create(ChecksumAlgorithm.CRC32C) : null;
+        try (InputStream inputStream = s3Object.getObjectContent()) {
+            byte[] buffer = m_client.getBufferPool().acquire();
+            try {
+                copyRange(inputStream, buffer, start, end, channel, checksummer);
+            } finally {
+                m_client.getBufferPool().release(buffer);
+            }
+        } catch (IOException e) {
+            throw new SdkClientException(e);
+        }
+        RangeResult rangeResult = new RangeResult();
+        if (checksummer != null) {
+            rangeResult.crc = checksummer.getCrc();
+            rangeResult.expectedChecksum = (String)s3Object.getObjectMetadata().getRawMetadataValue(ChecksumAlgorithm.CRC32C.getHeaderName());
+        }
+        return rangeResult;
+    }
+
+    /**
+     * Download the object as a single stream, for servers that do not support ranges.
+     * The client checks its checksum at the end of the stream.
+     */
+    private void downloadObject(GetObjectRequest getObjectRequest, long contentLength, String etag, FileChannel channel) {
+        GetObjectRequest objectRequest = TransferMonitor.inherit(getObjectRequest, new GetObjectRequest(getObjectRequest.getBucketName(), getObjectRequest.getKey()));
+        S3Object s3Object = m_client.getObject(objectRequest);
+        checkETag(s3Object, etag);
+        try (InputStream inputStream = s3Object.getObjectContent()) {
+            byte[] buffer = m_client.getBufferPool().acquire();
+            try {
+                if (contentLength > 0) {
+                    copyRange(inputStream, buffer, 0, contentLength - 1, channel, null);
+                }
+                if (inputStream.read() >= 0) {
+                    throw new SdkClientException("Object " + getObjectRequest.getBucketName() + "/" + getObjectRequest.getKey() + " is longer than " + contentLength + " bytes");
+                }
+            } finally {
+                m_client.getBufferPool().release(buffer);
+            }
+        } catch (IOException e) {
+            throw new SdkClientException(e);
+        }
+    }
+
+    /**
+     * Fail with a 412, like an If-Match precondition, if the response is not the planned version of the object.
+     * Not retried: the ranges already written belong to the other version.
+     */
+    private static void checkETag(S3Object s3Object, String etag) {
+        String responseETag = s3Object.getObjectMetadata().getETag();
+        if (etag == null || responseETag == null || etag.equals(responseETag)) {
+            return;
+        }
+        s3Object.getObjectContent().abort();
+        AmazonS3Exception exception = new AmazonS3Exception("Object " + s3Object.getBucketName() + "/" + s3Object.getKey()
+                + " changed during the download (ETag " + etag + " became " + responseETag + ")");
+        exception.setStatusCode(HttpStatus.SC_PRECONDITION_FAILED);
+        exception.setErrorCode("PreconditionFailed");
+        throw exception;
+    }
+
+    /**
+     * @param checksummer updated with the range content, may be null
+     */
+    private static void copyRange(InputStream inputStream, byte[] buffer, long start, long end, FileChannel channel, Checksummer checksummer) throws IOException {
+        long position = start;
+        long remaining = end - start + 1;
+        int readlen;
+        while (remaining > 0 && (readlen = inputStream.read(buffer, 0, (int)Math.min(buffer.length, remaining))) > 0) {
+            if (checksummer != null) {
+                checksummer.update(buffer, 0, readlen);
+            }
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, readlen);
+            while (byteBuffer.hasRemaining()) {
+                position += channel.write(byteBuffer, position);
+            }
+            remaining -= readlen;
+        }
+        if (remaining > 0) {
+            throw new SdkClientException("Range " + start + "-" + end + " ended " + remaining + " bytes early");
+        }
+    }
+}
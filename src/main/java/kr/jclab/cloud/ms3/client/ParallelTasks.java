@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import com.amazonaws.SdkClientException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs numbered tasks with bounded parallelism.
+ *
+ * The calling thread works on tasks as well, so progress is guaranteed
+ * even if every thread of a shared executor is busy.
+ */
+final class ParallelTasks {
+    interface Task {
+        void run(int index);
+    }
+
+    private ParallelTasks() {
+    }
+
+    /**
+     * Run task(0) .. task(taskCount - 1). The first failure stops the remaining tasks and is rethrown.
+     */
+    static void run(ExecutorService executor, int concurrency, int taskCount, Task task) throws SdkClientException {
+        final AtomicInteger nextIndex = new AtomicInteger(0);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        Callable<Void> worker = () -> {
+            int index;
+            while(!failed.get() && (index = nextIndex.getAndIncrement()) < taskCount) {
+                try {
+                    task.run(index);
+                } catch (RuntimeException e) {
+                    failed.set(true);
+                    throw e;
+                }
+            }
+            return null;
+        };
+
+        int workers = Math.max(1, Math.min(concurrency, taskCount));
+        List<Future<Void>> futures = new ArrayList<>(workers - 1);
+        try {
+            for (int i = 1; i < workers; i++) {
+                futures.add(executor.submit(worker));
+            }
+            RuntimeException error = null;
+            try {
+                worker.call();
+            } catch (RuntimeException e) {
+                error = e;
+            } catch (Exception e) {
+                error = new SdkClientException(e);
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        error = (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause() : new SdkClientException(e.getCause());
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        } catch (InterruptedException e) {
+            failed.set(true);
+            Thread.currentThread().interrupt();
+            throw new SdkClientException("Transfer interrupted", e);
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import com.amazonaws.annotation.ThreadSafe;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.HttpHostConnectException;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retry policy of MS3Client requests.
+ *
+ * A request is retried on I/O errors and on 429/5xx responses when
+ * - it is idempotent (GET, HEAD, PUT, DELETE), or it failed before reaching the server,
+ * - its body, if any, is repeatable,
+ * - the retry budget has tokens left.
+ *
+ * The delay before retry n is a random value between 0 and min(maxBackoff, baseDelay * 2^n) ("full jitter").
+ * The budget is a token bucket shared by all requests of the clients using this policy: each retry takes
+ * retryCost tokens and each successful request gives some back, so a server outage quickly
+ * stops the retries instead of multiplying the load.
+ */
+@ThreadSafe
+public class RetryPolicy {
+    public static final int DEFAULT_MAX_ERROR_RETRY = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 100;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 20 * 1000;
+    public static final int DEFAULT_RETRY_BUDGET = 500;
+    public static final int DEFAULT_RETRY_COST = 5;
+
+    private volatile int maxErrorRetry = DEFAULT_MAX_ERROR_RETRY;
+    private volatile long baseDelayMillis = DEFAULT_BASE_DELAY_MILLIS;
+    private volatile long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    private volatile int retryCost = DEFAULT_RETRY_COST;
+    private final int retryBudget;
+
+    private final AtomicInteger m_availableTokens;
+    private final AtomicLong m_retryCount = new AtomicLong();
+    private final AtomicLong m_budgetExhaustedCount = new AtomicLong();
+
+    public RetryPolicy() {
+        this(DEFAULT_RETRY_BUDGET);
+    }
+
+    /**
+     * @param retryBudget capacity of the token bucket, 0 or less for no budget
+     */
+    public RetryPolicy(int retryBudget) {
+        this.retryBudget = retryBudget;
+        m_availableTokens = new AtomicInteger(retryBudget);
+    }
+
+    public static RetryPolicy noRetry() {
+        return new RetryPolicy().withMaxErrorRetry(0);
+    }
+
+    public int getMaxErrorRetry() {
+        return maxErrorRetry;
+    }
+
+    public void setMaxErrorRetry(int maxErrorRetry) {
+        this.maxErrorRetry = maxErrorRetry;
+    }
+
+    public RetryPolicy withMaxErrorRetry(int maxErrorRetry) {
+        setMaxErrorRetry(maxErrorRetry);
+        return this;
+    }
+
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    public void setBaseDelayMillis(long baseDelayMillis) {
+        this.baseDelayMillis = baseDelayMillis;
+    }
+
+    public RetryPolicy withBaseDelayMillis(long baseDelayMillis) {
+        setBaseDelayMillis(baseDelayMillis);
+        return this;
+    }
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    public void setMaxBackoffMillis(long maxBackoffMillis) {
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public RetryPolicy withMaxBackoffMillis(long maxBackoffMillis) {
+        setMaxBackoffMillis(maxBackoffMillis);
+        return this;
+    }
+
+    public int getRetryCost() {
+        return retryCost;
+    }
+
+    public void setRetryCost(int retryCost) {
+        this.retryCost = retryCost;
+    }
+
+    public RetryPolicy withRetryCost(int retryCost) {
+        setRetryCost(retryCost);
+        return this;
+    }
+
+    public int getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * @return tokens currently left in the retry budget
+     */
+    public int getAvailableRetryTokens() {
+        return m_availableTokens.get();
+    }
+
+    /**
+     * @return number of retries made so far
+     */
+    public long getRetryCount() {
+        return m_retryCount.get();
+    }
+
+    /**
+     * @return number of retries refused because the budget was empty
+     */
+    public long getBudgetExhaustedCount() {
+        return m_budgetExhaustedCount.get();
+    }
+
+    /**
+     * Decide whether to retry after a response.
+     * Takes a retry token when it returns true.
+     */
+    boolean shouldRetry(HttpUriRequest httpRequest, int retriesAttempted, int statusCode) {
+        if(!isRetryableStatus(statusCode)) {
+            return false;
+        }
+        return isIdempotent(httpRequest) && checkRequest(httpRequest, retriesAttempted);
+    }
+
+    /**
+     * Decide whether to retry after an I/O error.
+     * Takes a retry token when it returns true.
+     */
+    boolean shouldRetry(HttpUriRequest httpRequest, int retriesAttempted, IOException exception) {
+        if(!isRetryableException(exception)) {
+            return false;
+        }
+        // A connection that could not be opened never carried the request
+        boolean notSent = (exception instanceof HttpHostConnectException) || (exception instanceof ConnectTimeoutException);
+        return (notSent || isIdempotent(httpRequest)) && checkRequest(httpRequest, retriesAttempted);
+    }
+
+    /**
+     * Give tokens back to the budget once a request completed without a retryable error.
+     */
+    void onRequestCompleted(int retriesAttempted) {
+        if(retryBudget <= 0) {
+            return;
+        }
+        int refund = (retriesAttempted > 0) ? retryCost : 1;
+        int tokens;
+        do {
+            tokens = m_availableTokens.get();
+            if(tokens >= retryBudget) {
+                return;
+            }
+        } while(!m_availableTokens.compareAndSet(tokens, Math.min(retryBudget, tokens + refund)));
+    }
+
+    /**
+     * @param retriesAttempted number of retries already made, 0 before the first retry
+     */
+    long computeDelayMillis(int retriesAttempted) {
+        long ceiling = baseDelayMillis << Math.min(retriesAttempted, 30);
+        if(ceiling <= 0 || ceiling > maxBackoffMillis) {
+            ceiling = maxBackoffMillis;
+        }
+        if(ceiling <= 0) {
+            return 0;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    protected boolean isRetryableStatus(int statusCode) {
+        return statusCode == 429
+                || statusCode == HttpStatus.SC_INTERNAL_SERVER_ERROR
+                || statusCode == HttpStatus.SC_BAD_GATEWAY
+                || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE
+                || statusCode == HttpStatus.SC_GATEWAY_TIMEOUT;
+    }
+
+    protected boolean isRetryableException(IOException exception) {
+        if(exception instanceof UnknownHostException || exception instanceof SSLException) {
+            return false;
+        }
+        if(exception instanceof InterruptedIOException) {
+            // Timeouts only, not a thread interrupt
+            return (exception instanceof SocketTimeoutException) || (exception instanceof ConnectTimeoutException);
+        }
+        return true;
+    }
+
+    protected boolean isIdempotent(HttpUriRequest httpRequest) {
+        String method = httpRequest.getMethod();
+        return "GET".equals(method) || "HEAD".equals(method) || "PUT".equals(method)
+                || "DELETE".equals(method) || "OPTIONS".equals(method);
+    }
+
+    private boolean checkRequest(HttpUriRequest httpRequest, int retriesAttempted) {
+        if(retriesAttempted >= maxErrorRetry || httpRequest.isAborted()) {
+            return false;
+        }
+        if(httpRequest instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) httpRequest).getEntity();
+            if(entity != null && !entity.isRepeatable()) {
+                return false;
+            }
+        }
+        if(!acquireToken()) {
+            m_budgetExhaustedCount.incrementAndGet();
+            return false;
+        }
+        m_retryCount.incrementAndGet();
+        return true;
+    }
+
+    private boolean acquireToken() {
+        if(retryBudget <= 0) {
+            return true;
+        }
+        int cost = retryCost;
+        int tokens;
+        do {
+            tokens = m_availableTokens.get();
+            if(tokens < cost) {
+                return false;
+            }
+        } while(!m_availableTokens.compareAndSet(tokens, tokens - cost));
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "[retries: " + getRetryCount() + "; budgetExhausted: " + getBudgetExhaustedCount() + "; tokens: " + getAvailableRetryTokens() + "/" + retryBudget + "]";
+    }
+}
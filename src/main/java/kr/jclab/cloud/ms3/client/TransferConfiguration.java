@@ -0,0 +1,191 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+/**
+ * Tuning of the parallel transfer paths (multipart upload, ranged download, multipart copy, bulk delete, directory transfers).
+ */
+public class TransferConfiguration {
+    private static final long MB = 1024 * 1024;
+
+    /** Files at least this large are uploaded with multipart upload by putObject, or in a single request if the server does not support it */
+    private long multipartUploadThreshold = 64 * MB;
+
+    /** Minimum part size. Grows for huge files so that no more than MAXIMUM_UPLOAD_PARTS parts are used */
+    private long minimumUploadPartSize = 16 * MB;
+
+    /** Number of parts of one transfer in flight at the same time */
+    private int concurrency = 4;
+
+    /** Attempts per part before the whole transfer fails */
+    private int maxPartAttempts = 3;
+
+    /**
+     * Objects at least this large are downloaded to a file as concurrent ranges.
+     * Zero or less disables it (default), which also saves the metadata request made to find the size.
+     */
+    private long parallelDownloadThreshold = 0;
+
+    /** Size of one range of a parallel download */
+    private long downloadPartSize = 16 * MB;
+
+    /**
+     * Objects at least this large are copied by copyObject as concurrent copyPart requests.
+     * Zero or less disables it (default), which also saves the metadata request made to find the size.
+     */
+    private long multipartCopyThreshold = 0;
+
+    /** Size of one part of a multipart copy */
+    private long multipartCopyPartSize = 128 * MB;
+
+    /** Maximum number of keys sent in one bulk delete request. Larger deleteObjects calls are split */
+    private int deleteBatchSize = 1000;
+
+    /** Number of files transferred at the same time by MS3TransferManager */
+    private int directoryConcurrency = 8;
+
+    public static final int MAXIMUM_UPLOAD_PARTS = 10000;
+
+    public long getMultipartUploadThreshold() {
+        return multipartUploadThreshold;
+    }
+
+    public void setMultipartUploadThreshold(long multipartUploadThreshold) {
+        this.multipartUploadThreshold = multipartUploadThreshold;
+    }
+
+    public TransferConfiguration withMultipartUploadThreshold(long multipartUploadThreshold) {
+        setMultipartUploadThreshold(multipartUploadThreshold);
+        return this;
+    }
+
+    public long getMinimumUploadPartSize() {
+        return minimumUploadPartSize;
+    }
+
+    public void setMinimumUploadPartSize(long minimumUploadPartSize) {
+        this.minimumUploadPartSize = minimumUploadPartSize;
+    }
+
+    public TransferConfiguration withMinimumUploadPartSize(long minimumUploadPartSize) {
+        setMinimumUploadPartSize(minimumUploadPartSize);
+        return this;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public TransferConfiguration withConcurrency(int concurrency) {
+        setConcurrency(concurrency);
+        return this;
+    }
+
+    public int getMaxPartAttempts() {
+        return maxPartAttempts;
+    }
+
+    public void setMaxPartAttempts(int maxPartAttempts) {
+        this.maxPartAttempts = maxPartAttempts;
+    }
+
+    public TransferConfiguration withMaxPartAttempts(int maxPartAttempts) {
+        setMaxPartAttempts(maxPartAttempts);
+        return this;
+    }
+
+    public long getParallelDownloadThreshold() {
+        return parallelDownloadThreshold;
+    }
+
+    public void setParallelDownloadThreshold(long parallelDownloadThreshold) {
+        this.parallelDownloadThreshold = parallelDownloadThreshold;
+    }
+
+    public TransferConfiguration withParallelDownloadThreshold(long parallelDownloadThreshold) {
+        setParallelDownloadThreshold(parallelDownloadThreshold);
+        return this;
+    }
+
+    public long getDownloadPartSize() {
+        return downloadPartSize;
+    }
+
+    public void setDownloadPartSize(long downloadPartSize) {
+        this.downloadPartSize = downloadPartSize;
+    }
+
+    public TransferConfiguration withDownloadPartSize(long downloadPartSize) {
+        setDownloadPartSize(downloadPartSize);
+        return this;
+    }
+
+    public long getMultipartCopyThreshold() {
+        return multipartCopyThreshold;
+    }
+
+    public void setMultipartCopyThreshold(long multipartCopyThreshold) {
+        this.multipartCopyThreshold = multipartCopyThreshold;
+    }
+
+    public TransferConfiguration withMultipartCopyThreshold(long multipartCopyThreshold) {
+        setMultipartCopyThreshold(multipartCopyThreshold);
+        return this;
+    }
+
+    public long getMultipartCopyPartSize() {
+        return multipartCopyPartSize;
+    }
+
+    public void setMultipartCopyPartSize(long multipartCopyPartSize) {
+        this.multipartCopyPartSize = multipartCopyPartSize;
+    }
+
+    public TransferConfiguration withMultipartCopyPartSize(long multipartCopyPartSize) {
+        setMultipartCopyPartSize(multipartCopyPartSize);
+        return this;
+    }
+
+    public int getDeleteBatchSize() {
+        return deleteBatchSize;
+    }
+
+    public void setDeleteBatchSize(int deleteBatchSize) {
+        this.deleteBatchSize = deleteBatchSize;
+    }
+
+    public TransferConfiguration withDeleteBatchSize(int deleteBatchSize) {
+        setDeleteBatchSize(deleteBatchSize);
+        return this;
+    }
+
+    public int getDirectoryConcurrency() {
+        return directoryConcurrency;
+    }
+
+    public void setDirectoryConcurrency(int directoryConcurrency) {
+        this.directoryConcurrency = directoryConcurrency;
+    }
+
+    public TransferConfiguration withDirectoryConcurrency(int directoryConcurrency) {
+        setDirectoryConcurrency(directoryConcurrency);
+        return this;
+    }
+}
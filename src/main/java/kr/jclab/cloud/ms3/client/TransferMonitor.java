@@ -0,0 +1,298 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.annotation.NotThreadSafe;
+import com.amazonaws.event.ProgressEventType;
+import com.amazonaws.event.ProgressListener;
+import com.amazonaws.event.SDKProgressPublisher;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Progress events and bandwidth limits of the content of one request.
+ *
+ * Byte counts are published in batches of at least PROGRESS_THRESHOLD bytes, like the SDK
+ * progress streams, so reading a byte at a time does not flood the listener.
+ */
+@NotThreadSafe
+final class TransferMonitor {
+    private static final int PROGRESS_THRESHOLD = 8 * 1024;
+
+    // Largest write or read done in one go while throttled, so the rate stays smooth
+    private static final int THROTTLE_CHUNK = 16 * 1024;
+
+    private final ProgressListener m_listener;
+    private final boolean m_upload;
+    private final BandwidthLimiter[] m_limiters;
+
+    private long m_unreported = 0;
+    private long m_reported = 0;
+    private boolean m_finished = false;
+
+    private TransferMonitor(ProgressListener listener, boolean upload, BandwidthLimiter[] limiters) {
+        m_listener = listener;
+        m_upload = upload;
+        m_limiters = limiters;
+    }
+
+    /**
+     * @return a monitor of the request body, null if there is no listener and no limiter
+     */
+    static TransferMonitor forUpload(AmazonWebServiceRequest request, BandwidthLimiter clientLimiter) {
+        return create(request, clientLimiter, true);
+    }
+
+    /**
+     * @return a monitor of the response body, null if there is no listener and no limiter
+     */
+    static TransferMonitor forDownload(AmazonWebServiceRequest request, BandwidthLimiter clientLimiter) {
+        return create(request, clientLimiter, false);
+    }
+
+    private static TransferMonitor create(AmazonWebServiceRequest request, BandwidthLimiter clientLimiter, boolean upload) {
+        ProgressListener listener = request.getGeneralProgressListener();
+        BandwidthLimiter requestLimiter = request.getHandlerContext(BandwidthLimiter.REQUEST_LIMITER);
+        BandwidthLimiter[] limiters;
+        if(clientLimiter != null && requestLimiter != null && clientLimiter != requestLimiter) {
+            limiters = new BandwidthLimiter[] { requestLimiter, clientLimiter };
+        }else if(clientLimiter != null || requestLimiter != null) {
+            limiters = new BandwidthLimiter[] { (requestLimiter != null) ? requestLimiter : clientLimiter };
+        }else if(listener != ProgressListener.NOOP) {
+            limiters = new BandwidthLimiter[0];
+        }else{
+            return null;
+        }
+        return new TransferMonitor(listener, upload, limiters);
+    }
+
+    /**
+     * Copy the listener and the limiter of a request to a sub-request, such as a part or a range.
+     * Only the transferred and reset byte counts are forwarded: the caller publishes the content length,
+     * the start and the end of the whole transfer.
+     */
+    static <T extends AmazonWebServiceRequest> T inherit(AmazonWebServiceRequest from, T to) {
+        ProgressListener listener = from.getGeneralProgressListener();
+        if(listener != ProgressListener.NOOP) {
+            to.setGeneralProgressListener(event -> {
+                ProgressEventType eventType = event.getEventType();
+                if(eventType.isByteCountEvent()
+                        && eventType != ProgressEventType.REQUEST_CONTENT_LENGTH_EVENT
+                        && eventType != ProgressEventType.RESPONSE_CONTENT_LENGTH_EVENT) {
+                    listener.progressChanged(event);
+                }
+            });
+        }
+        BandwidthLimiter limiter = from.getHandlerContext(BandwidthLimiter.REQUEST_LIMITER);
+        if(limiter != null) {
+            to.addHandlerContext(BandwidthLimiter.REQUEST_LIMITER, limiter);
+        }
+        return to;
+    }
+
+    /**
+     * Publish REQUEST_CONTENT_LENGTH_EVENT or RESPONSE_CONTENT_LENGTH_EVENT.
+     */
+    void contentLength(long contentLength) {
+        if(m_upload) {
+            SDKProgressPublisher.publishRequestContentLength(m_listener, contentLength);
+        }else{
+            SDKProgressPublisher.publishResponseContentLength(m_listener, contentLength);
+        }
+    }
+
+    void transferred(int bytes, boolean countProgress) throws InterruptedIOException {
+        for(BandwidthLimiter limiter : m_limiters) {
+            limiter.acquire(bytes);
+        }
+        if(countProgress && m_listener != ProgressListener.NOOP) {
+            m_unreported += bytes;
+            if(m_unreported >= PROGRESS_THRESHOLD) {
+                flush();
+            }
+        }
+    }
+
+    void flush() {
+        if(m_unreported > 0) {
+            if(m_upload) {
+                SDKProgressPublisher.publishRequestBytesTransferred(m_listener, m_unreported);
+            }else{
+                SDKProgressPublisher.publishResponseBytesTransferred(m_listener, m_unreported);
+            }
+            m_reported += m_unreported;
+            m_unreported = 0;
+        }
+    }
+
+    /**
+     * The content is sent again (retry): take back the bytes reported so far.
+     */
+    void reset() {
+        flush();
+        if(m_reported > 0) {
+            if(m_upload) {
+                SDKProgressPublisher.publishRequestReset(m_listener, m_reported);
+            }else{
+                SDKProgressPublisher.publishResponseReset(m_listener, m_reported);
+            }
+            m_reported = 0;
+        }
+    }
+
+    /**
+     * Publish TRANSFER_COMPLETED_EVENT or TRANSFER_FAILED_EVENT, once.
+     */
+    void finish(boolean success) {
+        if(m_finished) {
+            return;
+        }
+        m_finished = true;
+        flush();
+        SDKProgressPublisher.publishProgress(m_listener, success ? ProgressEventType.TRANSFER_COMPLETED_EVENT : ProgressEventType.TRANSFER_FAILED_EVENT);
+    }
+
+    private int chunkSize(int length) {
+        return (m_limiters.length > 0) ? Math.min(length, THROTTLE_CHUNK) : length;
+    }
+
+    /**
+     * @param prefixLength leading bytes that are not object content (the metadata prefix): throttled but not counted as progress
+     */
+    HttpEntity wrap(HttpEntity entity, long prefixLength) {
+        return new HttpEntityWrapper(entity) {
+            @Override
+            public void writeTo(OutputStream outstream) throws IOException {
+                reset();
+                wrappedEntity.writeTo(new MonitoredOutputStream(outstream, prefixLength));
+                flush();
+            }
+        };
+    }
+
+    /**
+     * Wrap a response content stream. The end of the stream publishes TRANSFER_COMPLETED_EVENT
+     * and a read error TRANSFER_FAILED_EVENT.
+     */
+    InputStream wrap(InputStream inputStream) {
+        return new MonitoredInputStream(inputStream);
+    }
+
+    private class MonitoredOutputStream extends FilterOutputStream {
+        private long m_prefixRemaining;
+
+        MonitoredOutputStream(OutputStream out, long prefixLength) {
+            super(out);
+            m_prefixRemaining = prefixLength;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            count(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while(len > 0) {
+                int chunk = chunkSize(len);
+                count(chunk);
+                out.write(b, off, chunk);
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        private void count(int bytes) throws InterruptedIOException {
+            int prefixBytes = (int)Math.min(bytes, m_prefixRemaining);
+            m_prefixRemaining -= prefixBytes;
+            if(prefixBytes > 0) {
+                transferred(prefixBytes, false);
+            }
+            if(bytes > prefixBytes) {
+                transferred(bytes - prefixBytes, true);
+            }
+        }
+    }
+
+    private class MonitoredInputStream extends FilterInputStream {
+        MonitoredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value;
+            try {
+                value = in.read();
+            } catch (IOException e) {
+                finish(false);
+                throw e;
+            }
+            if(value < 0) {
+                finish(true);
+            }else{
+                transferred(1, true);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int readlen;
+            try {
+                readlen = in.read(b, off, chunkSize(len));
+            } catch (IOException e) {
+                finish(false);
+                throw e;
+            }
+            if(readlen < 0) {
+                finish(true);
+            }else if(readlen > 0) {
+                transferred(readlen, true);
+            }
+            return readlen;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, chunkSize((int)Math.min(n, Integer.MAX_VALUE))));
+            if(skipped > 0) {
+                transferred((int)skipped, true);
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            super.close();
+        }
+    }
+}
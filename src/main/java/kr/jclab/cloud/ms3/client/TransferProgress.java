@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client;
+
+import com.amazonaws.annotation.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregate progress of a multiple file transfer, updated while it runs.
+ */
+@ThreadSafe
+public class TransferProgress {
+    private final long m_totalBytes;
+    private final int m_totalFiles;
+    private final AtomicLong m_bytesTransferred = new AtomicLong();
+    private final AtomicInteger m_filesCompleted = new AtomicInteger();
+    private final AtomicInteger m_filesFailed = new AtomicInteger();
+
+    TransferProgress(long totalBytes, int totalFiles) {
+        m_totalBytes = totalBytes;
+        m_totalFiles = totalFiles;
+    }
+
+    public long getTotalBytes() {
+        return m_totalBytes;
+    }
+
+    public int getTotalFiles() {
+        return m_totalFiles;
+    }
+
+    /**
+     * @return bytes transferred so far, including those of the files in flight
+     */
+    public long getBytesTransferred() {
+        return m_bytesTransferred.get();
+    }
+
+    public int getFilesCompleted() {
+        return m_filesCompleted.get();
+    }
+
+    public int getFilesFailed() {
+        return m_filesFailed.get();
+    }
+
+    public double getPercentTransferred() {
+        return (m_totalBytes > 0) ? 100.0 * getBytesTransferred() / m_totalBytes : ((getFilesCompleted() + getFilesFailed() >= m_totalFiles) ? 100.0 : 0.0);
+    }
+
+    /**
+     * @param bytes negative when bytes counted before are taken back (retried request, failed file)
+     */
+    void bytesTransferred(long bytes) {
+        m_bytesTransferred.addAndGet(bytes);
+    }
+
+    void fileCompleted() {
+        m_filesCompleted.incrementAndGet();
+    }
+
+    void fileFailed() {
+        m_filesFailed.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return "[files: " + getFilesCompleted() + "/" + m_totalFiles + "; failed: " + getFilesFailed() + "; bytes: " + getBytesTransferred() + "/" + m_totalBytes + "]";
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client.metrics;
+
+import com.amazonaws.annotation.ThreadSafe;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory MS3Metrics keeping, per operation, a latency histogram, byte counters,
+ * status code counters and the number of requests in flight.
+ */
+@ThreadSafe
+public class HistogramMetrics implements MS3Metrics {
+    @ThreadSafe
+    public static class OperationStats {
+        private static final int MAX_STATUS_CODE = 600;
+
+        private final LatencyHistogram m_latency = new LatencyHistogram();
+        private final LongAdder m_bytesSent = new LongAdder();
+        private final LongAdder m_bytesReceived = new LongAdder();
+        private final LongAdder m_failures = new LongAdder();
+        private final LongAdder m_retries = new LongAdder();
+        private final AtomicInteger m_inFlight = new AtomicInteger();
+        private final AtomicLongArray m_statusCounts = new AtomicLongArray(MAX_STATUS_CODE);
+
+        /**
+         * @return latency in nanoseconds of the requests that got a response
+         */
+        public LatencyHistogram getLatency() {
+            return m_latency;
+        }
+
+        public long getBytesSent() {
+            return m_bytesSent.sum();
+        }
+
+        public long getBytesReceived() {
+            return m_bytesReceived.sum();
+        }
+
+        /**
+         * @return requests that ended without a response (I/O errors)
+         */
+        public long getFailureCount() {
+            return m_failures.sum();
+        }
+
+        public long getRetryCount() {
+            return m_retries.sum();
+        }
+
+        public int getInFlight() {
+            return m_inFlight.get();
+        }
+
+        public long getStatusCount(int statusCode) {
+            return (statusCode >= 0 && statusCode < MAX_STATUS_CODE) ? m_statusCounts.get(statusCode) : 0;
+        }
+
+        /**
+         * @return number of responses with a status of at least 400
+         */
+        public long getErrorResponseCount() {
+            long count = 0;
+            for(int i = 400; i < MAX_STATUS_CODE; i++) {
+                count += m_statusCounts.get(i);
+            }
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return "[count: " + m_latency.getCount()
+                    + "; p50: " + TimeUnit.NANOSECONDS.toMicros(m_latency.getValueAtPercentile(50)) + "us"
+                    + "; p99: " + TimeUnit.NANOSECONDS.toMicros(m_latency.getValueAtPercentile(99)) + "us"
+                    + "; max: " + TimeUnit.NANOSECONDS.toMicros(m_latency.getMax()) + "us"
+                    + "; errors: " + getErrorResponseCount()
+                    + "; failures: " + getFailureCount()
+                    + "; retries: " + getRetryCount()
+                    + "; inFlight: " + getInFlight()
+                    + "; sent: " + getBytesSent()
+                    + "; received: " + getBytesReceived() + "]";
+        }
+    }
+
+    private final Map<Operation, OperationStats> m_stats = new EnumMap<>(Operation.class);
+
+    public HistogramMetrics() {
+        // Fully populated up front, so lookups never write to the map
+        for(Operation operation : Operation.values()) {
+            m_stats.put(operation, new OperationStats());
+        }
+    }
+
+    public OperationStats getStats(Operation operation) {
+        return m_stats.get(operation);
+    }
+
+    @Override
+    public void requestStarted(Operation operation) {
+        m_stats.get(operation).m_inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void requestCompleted(Operation operation, int statusCode, long latencyNanos, long bytesSent, long bytesReceived) {
+        OperationStats stats = m_stats.get(operation);
+        stats.m_inFlight.decrementAndGet();
+        stats.m_latency.record(latencyNanos);
+        if(bytesSent > 0) {
+            stats.m_bytesSent.add(bytesSent);
+        }
+        if(bytesReceived > 0) {
+            stats.m_bytesReceived.add(bytesReceived);
+        }
+        if(statusCode >= 0 && statusCode < OperationStats.MAX_STATUS_CODE) {
+            stats.m_statusCounts.incrementAndGet(statusCode);
+        }
+    }
+
+    @Override
+    public void requestFailed(Operation operation, Exception exception, long latencyNanos) {
+        OperationStats stats = m_stats.get(operation);
+        stats.m_inFlight.decrementAndGet();
+        stats.m_failures.increment();
+    }
+
+    @Override
+    public void requestRetried(Operation operation) {
+        m_stats.get(operation).m_retries.increment();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder();
+        for(Map.Entry<Operation, OperationStats> entry : m_stats.entrySet()) {
+            if(entry.getValue().getLatency().getCount() > 0 || entry.getValue().getFailureCount() > 0) {
+                stringBuilder.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+            }
+        }
+        return stringBuilder.toString();
+    }
+}
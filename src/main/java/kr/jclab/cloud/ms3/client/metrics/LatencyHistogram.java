@@ -0,0 +1,155 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client.metrics;
+
+import com.amazonaws.annotation.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of non-negative values, in the spirit of HdrHistogram.
+ *
+ * Every power of two is split into 32 linear sub-buckets, so a recorded value is reported
+ * with a relative error below 1/32 (about 3%) over the whole long range, in a fixed 15 KiB array.
+ * Recording is one array increment and never allocates.
+ */
+@ThreadSafe
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray m_counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder m_totalCount = new LongAdder();
+    private final LongAdder m_sum = new LongAdder();
+    private final AtomicLong m_max = new AtomicLong(0);
+
+    static int indexOf(long value) {
+        if(value < SUB_BUCKET_COUNT) {
+            return (int)Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int mantissa = (int)(value >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + mantissa;
+    }
+
+    static long lowestValueAt(int index) {
+        if(index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int mantissa = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        return (long)(SUB_BUCKET_COUNT + mantissa) << shift;
+    }
+
+    static long highestValueAt(int index) {
+        if(index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        return lowestValueAt(index) + (1L << shift) - 1;
+    }
+
+    public void record(long value) {
+        m_counts.incrementAndGet(indexOf(value));
+        m_totalCount.increment();
+        m_sum.add(value);
+        long max;
+        while(value > (max = m_max.get())) {
+            if(m_max.compareAndSet(max, value)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return m_totalCount.sum();
+    }
+
+    public long getMax() {
+        return m_max.get();
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return (count > 0) ? (double)m_sum.sum() / count : 0;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the highest value of the bucket holding the given percentile, 0 if empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] counts = snapshotCounts();
+        long total = 0;
+        for(long count : counts) {
+            total += count;
+        }
+        if(total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long)Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0));
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if(seen >= target) {
+                return Math.min(highestValueAt(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Add the counts of another histogram to this one, e.g. to aggregate per-thread histograms.
+     */
+    public void add(LatencyHistogram other) {
+        long[] counts = other.snapshotCounts();
+        for(int i = 0; i < counts.length; i++) {
+            if(counts[i] != 0) {
+                m_counts.addAndGet(i, counts[i]);
+                m_totalCount.add(counts[i]);
+            }
+        }
+        m_sum.add(other.m_sum.sum());
+        long otherMax = other.getMax();
+        long max;
+        while(otherMax > (max = m_max.get())) {
+            if(m_max.compareAndSet(max, otherMax)) {
+                break;
+            }
+        }
+    }
+
+    public void reset() {
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            m_counts.set(i, 0);
+        }
+        m_totalCount.reset();
+        m_sum.reset();
+        m_max.set(0);
+    }
+
+    private long[] snapshotCounts() {
+        long[] counts = new long[BUCKET_COUNT];
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = m_counts.get(i);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.client.metrics;
+
+/**
+ * Receives one event per HTTP exchange of an MS3Client.
+ *
+ * Implementations are called on the request threads and must be thread safe and cheap.
+ * Latency is measured from the first attempt until the response headers of the last attempt,
+ * so it includes retries and the upload of a request body but not the download of a response body.
+ * Byte counts are the declared Content-Length of the request and response bodies.
+ */
+public interface MS3Metrics {
+    /**
+     * Default metrics: the client does not even read the clock when it is used.
+     */
+    MS3Metrics NO_OP = new MS3Metrics() {
+    };
+
+    enum Operation {
+        LIST_BUCKETS,
+        CREATE_BUCKET,
+        HEAD_BUCKET,
+        LIST_OBJECTS,
+        GET_OBJECT,
+        GET_OBJECT_METADATA,
+        HEAD_OBJECT,
+        PUT_OBJECT,
+        COPY_OBJECT,
+        DELETE_OBJECT,
+        DELETE_OBJECTS,
+        GET_URL,
+        INITIATE_MULTIPART_UPLOAD,
+        UPLOAD_PART,
+        COPY_PART,
+        COMPLETE_MULTIPART_UPLOAD,
+        ABORT_MULTIPART_UPLOAD,
+        LIST_PARTS,
+        LIST_MULTIPART_UPLOADS
+    }
+
+    default void requestStarted(Operation operation) {
+    }
+
+    /**
+     * A response was received, whatever its status.
+     *
+     * @param bytesSent request body length, 0 if none or unknown
+     * @param bytesReceived response body length, 0 if none or unknown
+     */
+    default void requestCompleted(Operation operation, int statusCode, long latencyNanos, long bytesSent, long bytesReceived) {
+    }
+
+    /**
+     * No response could be received.
+     */
+    default void requestFailed(Operation operation, Exception exception, long latencyNanos) {
+    }
+
+    default void requestRetried(Operation operation) {
+    }
+}
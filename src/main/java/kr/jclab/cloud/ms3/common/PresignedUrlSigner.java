@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.common;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * HMAC-SHA256 signature of presigned object URLs, shared by the client and the server.
+ *
+ * A presigned URL is the object URL with these query parameters:
+ * <pre>
+ * MS3-Method=GET&amp;MS3-Expires=1545700000&amp;MS3-KeyId=key1&amp;MS3-Signature=...
+ * </pre>
+ * The signature is the unpadded base64url HMAC-SHA256 of
+ * <pre>
+ * method + "\n" + encoded path (e.g. /api/bucket/object/bucket/key) + "\n" + expires + "\n" + keyId
+ * </pre>
+ * where expires is in seconds since the epoch and keyId is empty when not used.
+ */
+public class PresignedUrlSigner {
+    public static final String PARAM_METHOD = "MS3-Method";
+    public static final String PARAM_EXPIRES = "MS3-Expires";
+    public static final String PARAM_KEY_ID = "MS3-KeyId";
+    public static final String PARAM_SIGNATURE = "MS3-Signature";
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final String m_keyId;
+    private final SecretKeySpec m_key;
+
+    /**
+     * @param keyId identifies the key on the server when it has several, may be null
+     * @param secret shared secret
+     */
+    public PresignedUrlSigner(String keyId, byte[] secret) {
+        if(secret == null || secret.length == 0) {
+            throw new IllegalArgumentException("secret must not be empty");
+        }
+        m_keyId = keyId;
+        m_key = new SecretKeySpec(secret.clone(), ALGORITHM);
+    }
+
+    public String getKeyId() {
+        return m_keyId;
+    }
+
+    public String sign(String method, String encodedPath, long expiresEpochSeconds) {
+        String stringToSign = method + "\n" + encodedPath + "\n" + expiresEpochSeconds + "\n" + ((m_keyId != null) ? m_keyId : "");
+        try {
+            // Mac instances are not thread safe and cheap to create
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(m_key);
+            byte[] signature = mac.doFinal(stringToSign.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Check a presigned request on the server side.
+     *
+     * @return true if the signature matches and the URL has not expired
+     */
+    public boolean verify(String method, String encodedPath, long expiresEpochSeconds, String signature, long nowEpochSeconds) {
+        if(signature == null || nowEpochSeconds > expiresEpochSeconds) {
+            return false;
+        }
+        byte[] expected = sign(method, encodedPath, expiresEpochSeconds).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(expected, signature.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.common.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DeleteObjectsDTO {
+    public static class KeyEntry {
+        public String key;
+        public String versionId;
+    }
+
+    public static class Request {
+        // Only errors are reported when true
+        public boolean quiet;
+        public List<KeyEntry> keys = new ArrayList<>();
+    }
+
+    public static class ErrorEntry {
+        public String key;
+        public String versionId;
+        public String code;
+        public String message;
+    }
+
+    public static class Response extends ResultBase {
+        public List<KeyEntry> deleted = new ArrayList<>();
+        public List<ErrorEntry> errors = new ArrayList<>();
+    }
+}
@@ -28,5 +28,10 @@ public class ListObjectsDTO {
 
     public static class Response {
         public List<ObjectSummary> list = new ArrayList<>();
+
+        // Paging fields. Servers without paging support leave them out and return the whole listing.
+        public Boolean truncated;
+        public String nextMarker;
+        public List<String> commonPrefixes = new ArrayList<>();
     }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 JC-Lab. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.jclab.cloud.ms3.common.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MultipartUploadDTO {
+    public static class InitiateResponse extends ResultBase {
+        public String uploadId;
+    }
+
+    public static class UploadPartResponse extends ResultBase {
+        public String etag;
+    }
+
+    public static class PartSummary {
+        public int partNumber;
+        public String etag;
+        public Long size;
+        public Long lastModified;
+    }
+
+    public static class CompleteRequest {
+        public List<PartSummary> parts = new ArrayList<>();
+    }
+
+    public static class CompleteResponse extends ResultBase {
+        public String etag;
+    }
+
+    public static class UploadSummary {
+        public String bucketName;
+        public String key;
+        public String uploadId;
+        public Long initiated;
+    }
+
+    public static class ListUploadsResponse {
+        public List<UploadSummary> list = new ArrayList<>();
+    }
+
+    public static class ListPartsResponse {
+        public List<PartSummary> list = new ArrayList<>();
+    }
+}